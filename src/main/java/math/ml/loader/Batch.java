@@ -0,0 +1,103 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.loader;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A mini-batch of inputs together with their expected values, both stored as
+ * column vectors, or, for datasets with class labels, together with the class
+ * indices of the samples. Batches are buffers that get reused, so their content
+ * is only valid until the producer of the batch refills it.
+ */
+public final class Batch {
+
+    private final MatrixF input;
+    // null if the batch holds class indices
+    private final MatrixF expected;
+    // null if the batch holds expected values
+    private final int[] labels;
+
+    Batch(int inputSize, int expectedSize, int batchSize) {
+        this(inputSize, expectedSize, batchSize, false);
+    }
+
+    Batch(int inputSize, int expectedSize, int batchSize, boolean sparseLabels) {
+        this.input = Matrices.createF(inputSize, batchSize);
+        this.expected = sparseLabels ? null : Matrices.createF(expectedSize, batchSize);
+        this.labels = sparseLabels ? new int[batchSize] : null;
+    }
+
+    /**
+     * Returns the {@code inputSize x batchSize} matrix of inputs.
+     * 
+     * @return the inputs of this batch
+     */
+    public MatrixF getInput() {
+        return input;
+    }
+
+    /**
+     * Returns the {@code expectedSize x batchSize} matrix of expected values.
+     * 
+     * @return the expected values of this batch or {@code null} if this batch
+     *         holds class indices instead
+     */
+    public MatrixF getExpected() {
+        return expected;
+    }
+
+    /**
+     * Returns the class indices of the samples in this batch.
+     * 
+     * @return the class indices of this batch or {@code null} if this batch
+     *         holds expected values instead
+     */
+    public int[] getLabels() {
+        return labels;
+    }
+
+    /**
+     * Fills this batch with the samples {@code indices[from]} to
+     * {@code indices[from + batchSize - 1]} of the given dataset.
+     */
+    void fill(Dataset dataset, int[] indices, int from) {
+        float[] in = input.getArrayUnsafe();
+        int inputSize = input.numRows();
+        if (labels != null) {
+            for (int col = 0; col < labels.length; ++col) {
+                int sample = indices[from + col];
+                dataset.copyInput(sample, in, col * inputSize);
+                labels[col] = dataset.label(sample);
+            }
+            return;
+        }
+        float[] ex = expected.getArrayUnsafe();
+        int expectedSize = expected.numRows();
+        for (int col = 0; col < input.numColumns(); ++col) {
+            int sample = indices[from + col];
+            dataset.copyInput(sample, in, col * inputSize);
+            dataset.copyExpected(sample, ex, col * expectedSize);
+        }
+    }
+
+    static void checkLabels(Dataset dataset, boolean sparseLabels) {
+        if (sparseLabels && !dataset.hasLabels()) {
+            throw new IllegalArgumentException("dataset has no class labels");
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.loader;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Iterates over one epoch of a {@link Dataset} in mini-batches of a fixed size.
+ * <p>
+ * Shuffling permutes an array of sample indices instead of the data itself,
+ * and all batches are assembled into the same preallocated {@link Batch}, so
+ * the steady-state iteration doesn't allocate. Consequently, a batch returned
+ * from {@link #next()} gets overwritten by the following call of
+ * {@code next()}. Trailing samples that don't fill a whole batch are skipped
+ * in each epoch.
+ */
+public final class BatchIterator implements Iterator<Batch> {
+
+    private final Dataset dataset;
+    private final int batchSize;
+    private final int[] indices;
+    private final Batch batch;
+    private int position = 0;
+
+    /**
+     * Creates an iterator over the samples of {@code dataset} in their original
+     * order.
+     * 
+     * @param dataset   the dataset
+     * @param batchSize the number of samples per batch
+     */
+    public BatchIterator(Dataset dataset, int batchSize) {
+        this(dataset, batchSize, false);
+    }
+
+    /**
+     * Creates an iterator over the samples of {@code dataset} in their original
+     * order whose batches hold either the expected values or, if
+     * {@code sparseLabels} is {@code true}, the class indices of the samples
+     * (see {@link Batch#getLabels()}).
+     * 
+     * @param dataset      the dataset
+     * @param batchSize    the number of samples per batch
+     * @param sparseLabels whether the batches hold class indices instead of
+     *                     expected values
+     * @throws IllegalArgumentException if {@code sparseLabels} is {@code true}
+     *                                  but the dataset has no class labels
+     */
+    public BatchIterator(Dataset dataset, int batchSize, boolean sparseLabels) {
+        if (batchSize <= 0 || batchSize > dataset.size()) {
+            throw new IllegalArgumentException("batchSize: " + batchSize);
+        }
+        Batch.checkLabels(dataset, sparseLabels);
+        this.dataset = dataset;
+        this.batchSize = batchSize;
+        this.indices = new int[dataset.size()];
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = i;
+        }
+        this.batch = new Batch(dataset.inputSize(), dataset.expectedSize(), batchSize, sparseLabels);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position + batchSize <= indices.length;
+    }
+
+    @Override
+    public Batch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        batch.fill(dataset, indices, position);
+        position += batchSize;
+        return batch;
+    }
+
+    /**
+     * Randomly permutes the order of the samples and starts a new epoch.
+     * 
+     * @param seed the seed for the random permutation
+     */
+    public void shuffle(long seed) {
+        shuffle(indices, seed);
+        position = 0;
+    }
+
+    /**
+     * Starts a new epoch without changing the order of the samples.
+     */
+    public void reset() {
+        position = 0;
+    }
+
+    /**
+     * Returns the number of batches per epoch.
+     * 
+     * @return the number of batches per epoch
+     */
+    public int batchesPerEpoch() {
+        return indices.length / batchSize;
+    }
+
+    /**
+     * Returns the number of samples per batch.
+     * 
+     * @return the number of samples per batch
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    static void shuffle(int[] indices, long seed) {
+        // Fisher-Yates
+        SplittableRandom rng = new SplittableRandom(seed);
+        for (int i = indices.length - 1; i > 0; --i) {
+            int j = rng.nextInt(i + 1);
+            int tmp = indices[i];
+            indices[i] = indices[j];
+            indices[j] = tmp;
+        }
+    }
+}
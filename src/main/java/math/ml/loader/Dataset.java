@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.loader;
+
+/**
+ * A dataset of samples, each consisting of an input vector and the vector of
+ * expected values for that input. Implementations copy samples directly into
+ * caller-provided arrays so that batches can be assembled without allocation.
+ */
+public interface Dataset {
+
+    /**
+     * Returns the number of samples in this dataset.
+     * 
+     * @return the number of samples
+     */
+    int size();
+
+    /**
+     * Returns the length of an input vector.
+     * 
+     * @return the length of an input vector
+     */
+    int inputSize();
+
+    /**
+     * Returns the length of an expected values vector.
+     * 
+     * @return the length of an expected values vector
+     */
+    int expectedSize();
+
+    /**
+     * Copies the input vector of the given sample into {@code dst}.
+     * 
+     * @param sample the index of the sample
+     * @param dst    the destination array
+     * @param dstOff the offset into {@code dst}
+     */
+    void copyInput(int sample, float[] dst, int dstOff);
+
+    /**
+     * Copies the expected values vector of the given sample into {@code dst}.
+     * 
+     * @param sample the index of the sample
+     * @param dst    the destination array
+     * @param dstOff the offset into {@code dst}
+     */
+    void copyExpected(int sample, float[] dst, int dstOff);
+
+    /**
+     * Returns whether the expected values of this dataset are class labels that
+     * can be retrieved as class indices by {@link #label(int)}.
+     * 
+     * @return {@code true} if this dataset has class labels
+     */
+    default boolean hasLabels() {
+        return false;
+    }
+
+    /**
+     * Returns the class index of the given sample, i.e., the row of the
+     * {@code 1} in its one-hot expected values vector.
+     * 
+     * @param sample the index of the sample
+     * @return the class index of the sample
+     * @throws UnsupportedOperationException if this dataset has no class labels
+     */
+    default int label(int sample) {
+        throw new UnsupportedOperationException("no class labels");
+    }
+}
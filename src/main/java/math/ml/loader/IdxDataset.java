@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.loader;
+
+import java.util.Arrays;
+
+/**
+ * A {@link Dataset} that streams its samples from a memory-mapped IDX file of
+ * inputs and a memory-mapped IDX file of class labels. The labels get expanded
+ * into one-hot expected values vectors on the fly, unless they are requested as
+ * class indices.
+ */
+public final class IdxDataset implements Dataset {
+
+    private final IdxFile inputs;
+    private final IdxFile labels;
+    private final int numClasses;
+    private final boolean normalize;
+
+    /**
+     * Creates a dataset from an IDX file of inputs and an IDX file of labels.
+     * 
+     * @param inputs     the inputs
+     * @param labels     the class labels (one byte per sample)
+     * @param numClasses the number of distinct classes
+     * @param normalize  if {@code true} the inputs get rescaled from
+     *                   {@code [0, 255]} to {@code [0, 1]}
+     */
+    public IdxDataset(IdxFile inputs, IdxFile labels, int numClasses, boolean normalize) {
+        if (inputs.size() != labels.size()) {
+            throw new IllegalArgumentException("size mismatch: " + inputs.size() + " != " + labels.size());
+        }
+        this.inputs = inputs;
+        this.labels = labels;
+        this.numClasses = numClasses;
+        this.normalize = normalize;
+    }
+
+    @Override
+    public int size() {
+        return inputs.size();
+    }
+
+    @Override
+    public int inputSize() {
+        return inputs.itemSize();
+    }
+
+    @Override
+    public int expectedSize() {
+        return numClasses;
+    }
+
+    @Override
+    public void copyInput(int sample, float[] dst, int dstOff) {
+        inputs.read(sample, dst, dstOff, normalize);
+    }
+
+    @Override
+    public void copyExpected(int sample, float[] dst, int dstOff) {
+        Arrays.fill(dst, dstOff, dstOff + numClasses, 0.0f);
+        dst[dstOff + labels.getUnsignedByte(sample)] = 1.0f;
+    }
+
+    @Override
+    public boolean hasLabels() {
+        return true;
+    }
+
+    @Override
+    public int label(int sample) {
+        return labels.getUnsignedByte(sample);
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.loader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A memory-mapped reader for unsigned byte IDX files (the format of Yann LeCuns
+ * MNIST datasets). The file is never copied onto the heap as a whole, items
+ * get decoded directly from the OS page cache into the destination arrays, so
+ * this can also be used to stream datasets that are larger than the heap.
+ * <p>
+ * An IDX file holds {@link #size()} items, each consisting of
+ * {@link #itemSize()} unsigned bytes (e.g., 28 x 28 = 784 pixels for an MNIST
+ * image, or 1 byte for an MNIST label).
+ */
+public final class IdxFile {
+
+    private static final int UNSIGNED_BYTE = 0x08;
+    // the number of items plus at most 3 dimensions per item
+    private static final int MAX_DIMENSIONS = 4;
+    // decoding tables for raw and normalized unsigned bytes
+    private static final float[] RAW = new float[256];
+    private static final float[] NORMALIZED = new float[256];
+    // maximum number of bytes in a single mapped segment
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private final int size;
+    private final int itemSize;
+    private final int itemsPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    private IdxFile(int size, int itemSize, int itemsPerSegment, MappedByteBuffer[] segments) {
+        this.size = size;
+        this.itemSize = itemSize;
+        this.itemsPerSegment = itemsPerSegment;
+        this.segments = segments;
+    }
+
+    /**
+     * Opens and maps an unsigned byte IDX file.
+     * 
+     * @param path the path of the IDX file
+     * @return the opened IDX file
+     * @throws UncheckedIOException if the file can't be read or isn't a valid
+     *                              unsigned byte IDX file
+     */
+    public static IdxFile open(String path) {
+        return open(Paths.get(path));
+    }
+
+    /**
+     * Opens and maps an unsigned byte IDX file.
+     * 
+     * @param path the path of the IDX file
+     * @return the opened IDX file
+     * @throws UncheckedIOException if the file can't be read or isn't a valid
+     *                              unsigned byte IDX file
+     */
+    public static IdxFile open(Path path) {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), 4));
+            if (header.remaining() < 4 || header.get(0) != 0 || header.get(1) != 0) {
+                throw new IOException("not an IDX file: " + path);
+            }
+            int type = header.get(2) & 0xFF;
+            if (elementSize(type) == 0) {
+                throw new IOException("unknown IDX type code 0x" + Integer.toHexString(type) + ": " + path);
+            }
+            if (type != UNSIGNED_BYTE) {
+                throw new IOException("not an unsigned byte IDX file: " + path);
+            }
+            int dimensions = header.get(3) & 0xFF;
+            if (dimensions == 0 || dimensions > MAX_DIMENSIONS) {
+                throw new IOException("unsupported number of IDX dimensions " + dimensions + ": " + path);
+            }
+            long dataOffset = 4L + 4L * dimensions;
+            if (ch.size() < dataOffset) {
+                throw new IOException("truncated IDX file: " + path);
+            }
+            header = ch.map(FileChannel.MapMode.READ_ONLY, 4, 4L * dimensions);
+            int size = header.getInt();
+            long itemSize = 1;
+            for (int i = 1; i < dimensions && itemSize <= MAX_SEGMENT_BYTES; ++i) {
+                int dim = header.getInt();
+                itemSize = (dim > 0) ? itemSize * dim : 0;
+            }
+            if (size < 0 || itemSize == 0 || itemSize > MAX_SEGMENT_BYTES) {
+                throw new IOException("invalid IDX dimensions: " + path);
+            }
+            if (ch.size() < dataOffset + size * itemSize) {
+                throw new IOException("truncated IDX file: " + path);
+            }
+            // split into segments that contain a whole number of items
+            int itemsPerSegment = (int) Math.min(size, MAX_SEGMENT_BYTES / itemSize);
+            int segmentCount = itemsPerSegment == 0 ? 0 : (size + itemsPerSegment - 1) / itemsPerSegment;
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; ++i) {
+                int items = Math.min(itemsPerSegment, size - i * itemsPerSegment);
+                segments[i] = ch.map(FileChannel.MapMode.READ_ONLY,
+                        dataOffset + (long) i * itemsPerSegment * itemSize, (long) items * itemSize);
+            }
+            // the mappings stay valid after the channel has been closed
+            return new IdxFile(size, (int) itemSize, itemsPerSegment, segments);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of items in this file.
+     * 
+     * @return the number of items
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of unsigned bytes per item.
+     * 
+     * @return the number of bytes per item
+     */
+    public int itemSize() {
+        return itemSize;
+    }
+
+    /**
+     * Returns the first (for a label file the only) byte of the given item as an
+     * {@code int} in the range {@code [0, 255]}.
+     * 
+     * @param item the index of the item
+     * @return the first byte of the item
+     */
+    public int getUnsignedByte(int item) {
+        checkItems(item, 1);
+        return segments[item / itemsPerSegment].get((item % itemsPerSegment) * itemSize) & 0xFF;
+    }
+
+    /**
+     * Decodes the given item into {@code dst} starting at {@code dstOff}.
+     * 
+     * @param item      the index of the item
+     * @param dst       the destination array
+     * @param dstOff    the offset into {@code dst}
+     * @param normalize if {@code true} the values get rescaled from
+     *                  {@code [0, 255]} to {@code [0, 1]}
+     */
+    public void read(int item, float[] dst, int dstOff, boolean normalize) {
+        read(item, 1, dst, dstOff, normalize);
+    }
+
+    /**
+     * Decodes {@code count} consecutive items starting at {@code first} into
+     * {@code dst} starting at {@code dstOff}. The items are written one after the
+     * other, so for a column-major {@code itemSize() x count} matrix each item
+     * ends up in its own column.
+     * 
+     * @param first     the index of the first item
+     * @param count     the number of items
+     * @param dst       the destination array
+     * @param dstOff    the offset into {@code dst}
+     * @param normalize if {@code true} the values get rescaled from
+     *                  {@code [0, 255]} to {@code [0, 1]}
+     */
+    public void read(int first, int count, float[] dst, int dstOff, boolean normalize) {
+        checkItems(first, count);
+        float[] decode = normalize ? NORMALIZED : RAW;
+        while (count > 0) {
+            MappedByteBuffer segment = segments[first / itemsPerSegment];
+            int start = (first % itemsPerSegment) * itemSize;
+            int items = Math.min(count, itemsPerSegment - first % itemsPerSegment);
+            int end = start + items * itemSize;
+            for (int i = start; i < end; ++i) {
+                dst[dstOff++] = decode[segment.get(i) & 0xFF];
+            }
+            first += items;
+            count -= items;
+        }
+    }
+
+    /**
+     * Decodes {@code count} consecutive items starting at {@code first} into a
+     * new {@code itemSize() x count} matrix (one item per column).
+     * 
+     * @param first     the index of the first item
+     * @param count     the number of items
+     * @param normalize if {@code true} the values get rescaled from
+     *                  {@code [0, 255]} to {@code [0, 1]}
+     * @return the decoded items
+     */
+    public MatrixF toMatrix(int first, int count, boolean normalize) {
+        MatrixF items = Matrices.createF(itemSize, count);
+        read(first, count, items.getArrayUnsafe(), 0, normalize);
+        return items;
+    }
+
+    /**
+     * Decodes all items into a new {@code itemSize() x size()} matrix (one item
+     * per column).
+     * 
+     * @param normalize if {@code true} the values get rescaled from
+     *                  {@code [0, 255]} to {@code [0, 1]}
+     * @return the decoded items
+     */
+    public MatrixF toMatrix(boolean normalize) {
+        return toMatrix(0, size, normalize);
+    }
+
+    /**
+     * Returns an iterator that lazily decodes consecutive mini-batches of
+     * {@code batchSize} items (the last one may be smaller) into new
+     * {@code itemSize() x batchSize} matrices, so that only one batch at a time
+     * needs to be on the heap.
+     * 
+     * @param batchSize the number of items per batch
+     * @param normalize if {@code true} the values get rescaled from
+     *                  {@code [0, 255]} to {@code [0, 1]}
+     * @return an iterator over the mini-batches of this file
+     */
+    public Iterator<MatrixF> batches(int batchSize, boolean normalize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize: " + batchSize);
+        }
+        return new Iterator<MatrixF>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public MatrixF next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int count = Math.min(batchSize, size - next);
+                MatrixF batch = toMatrix(next, count, normalize);
+                next += count;
+                return batch;
+            }
+        };
+    }
+
+    static {
+        for (int i = 0; i < 256; ++i) {
+            RAW[i] = i;
+            NORMALIZED[i] = i / 255.0f;
+        }
+    }
+
+    // the size in bytes of an element of the given IDX type, 0 if unknown
+    private static int elementSize(int type) {
+        switch (type) {
+        case 0x08: // unsigned byte
+        case 0x09: // signed byte
+            return 1;
+        case 0x0B: // short
+            return 2;
+        case 0x0C: // int
+        case 0x0D: // float
+            return 4;
+        case 0x0E: // double
+            return 8;
+        default:
+            return 0;
+        }
+    }
+
+    private void checkItems(int first, int count) {
+        if (first < 0 || count < 0 || first > size - count) {
+            throw new IndexOutOfBoundsException("items [" + first + ", " + (first + count) + ") of " + size);
+        }
+    }
+}
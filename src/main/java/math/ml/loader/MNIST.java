@@ -15,12 +15,6 @@
  */
 package math.ml.loader;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.UncheckedIOException;
-
 import net.jamu.matrix.Matrices;
 import net.jamu.matrix.MatrixF;
 
@@ -31,8 +25,6 @@ public final class MNIST {
 
     private static final int NUMBER_OF_DISTINCT_LABELS = 10;
 
-    private static final MatrixF[] ONE_HOT = new MatrixF[NUMBER_OF_DISTINCT_LABELS];
-
     private static final String TRAIN_IMAGES = "./data/mnist/train-images.idx3-ubyte";
     private static final String TRAIN_IMAGES_LEFT = "./data/mnist/train-images-left.idx3-ubyte";
     private static final String TRAIN_IMAGES_RIGHT = "./data/mnist/train-images-right.idx3-ubyte";
@@ -46,11 +38,19 @@ public final class MNIST {
      * @return MNIST training set images
      */
     public static MatrixF getTrainingSetImages() {
-        try {
-            return readImages(TRAIN_IMAGES);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        return getTrainingSetImages(false);
+    }
+
+    /**
+     * Loads the training images into a {@code 784 x 60_000} matrix, optionally
+     * normalized to {@code [0, 1]}.
+     * 
+     * @param normalize whether the pixel values should be rescaled from
+     *                  {@code [0, 255]} to {@code [0, 1]}
+     * @return MNIST training set images
+     */
+    public static MatrixF getTrainingSetImages(boolean normalize) {
+        return readImages(TRAIN_IMAGES, normalize);
     }
 
     /**
@@ -60,11 +60,19 @@ public final class MNIST {
      * @return MNIST training set images shifted one pixel to the left
      */
     public static MatrixF getTrainingSetImagesLeft() {
-        try {
-            return readImages(TRAIN_IMAGES_LEFT);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        return getTrainingSetImagesLeft(false);
+    }
+
+    /**
+     * Loads the training images (shifted one pixel to the left) into a
+     * {@code 784 x 60_000} matrix, optionally normalized to {@code [0, 1]}.
+     * 
+     * @param normalize whether the pixel values should be rescaled from
+     *                  {@code [0, 255]} to {@code [0, 1]}
+     * @return MNIST training set images shifted one pixel to the left
+     */
+    public static MatrixF getTrainingSetImagesLeft(boolean normalize) {
+        return readImages(TRAIN_IMAGES_LEFT, normalize);
     }
 
     /**
@@ -74,11 +82,19 @@ public final class MNIST {
      * @return MNIST training set images shifted one pixel to the right
      */
     public static MatrixF getTrainingSetImagesRight() {
-        try {
-            return readImages(TRAIN_IMAGES_RIGHT);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        return getTrainingSetImagesRight(false);
+    }
+
+    /**
+     * Loads the training images (shifted one pixel to the right) into a
+     * {@code 784 x 60_000} matrix, optionally normalized to {@code [0, 1]}.
+     * 
+     * @param normalize whether the pixel values should be rescaled from
+     *                  {@code [0, 255]} to {@code [0, 1]}
+     * @return MNIST training set images shifted one pixel to the right
+     */
+    public static MatrixF getTrainingSetImagesRight(boolean normalize) {
+        return readImages(TRAIN_IMAGES_RIGHT, normalize);
     }
 
     /**
@@ -87,11 +103,19 @@ public final class MNIST {
      * @return MNIST test set images
      */
     public static MatrixF getTestSetImages() {
-        try {
-            return readImages(TEST_IMAGES);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        return getTestSetImages(false);
+    }
+
+    /**
+     * Loads the test images into a {@code 784 x 10_000} matrix, optionally
+     * normalized to {@code [0, 1]}.
+     * 
+     * @param normalize whether the pixel values should be rescaled from
+     *                  {@code [0, 255]} to {@code [0, 1]}
+     * @return MNIST test set images
+     */
+    public static MatrixF getTestSetImages(boolean normalize) {
+        return readImages(TEST_IMAGES, normalize);
     }
 
     /**
@@ -100,11 +124,7 @@ public final class MNIST {
      * @return MNIST training set labels
      */
     public static MatrixF getTrainingSetLabels() {
-        try {
-            return readLabels(TRAIN_LABELS);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        return readLabels(TRAIN_LABELS);
     }
 
     /**
@@ -113,59 +133,88 @@ public final class MNIST {
      * @return MNIST test set labels
      */
     public static MatrixF getTestSetLabels() {
-        try {
-            return readLabels(TEST_LABELS);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        return readLabels(TEST_LABELS);
     }
 
-    private static MatrixF readImages(String path) throws IOException {
-        try (DataInputStream ds = getDataInputStream(path)) {
-            int imageCount = ds.readInt();
-            int rowPixelCount = ds.readInt();
-            int colPixelCount = ds.readInt();
-            final int matrixRowCount = rowPixelCount * colPixelCount;
-            // we store each image in a column of the returned matrix
-            MatrixF images = Matrices.createF(matrixRowCount, imageCount);
-            // images in the LeCun files are stored in row-major, so we store them line by
-            // line into our column
-            for (int col = 0; col < imageCount; ++col) {
-                for (int row = 0; row < matrixRowCount; ++row) {
-                    images.set(row, col, ds.readUnsignedByte());
-                }
-            }
-            return images;
-        }
+    /**
+     * Loads the training labels as class indices.
+     * 
+     * @return MNIST training set labels as an array of {@code 60_000} class
+     *         indices
+     */
+    public static int[] getTrainingSetLabelIndices() {
+        return readLabelIndices(TRAIN_LABELS);
     }
 
-    private static MatrixF readLabels(String path) throws IOException {
-        try (DataInputStream ds = getDataInputStream(path)) {
-            int labelCount = ds.readInt();
-            MatrixF labels = Matrices.createF(NUMBER_OF_DISTINCT_LABELS, labelCount);
-            for (int i = 0; i < labelCount; ++i) {
-                int label = ds.readUnsignedByte();
-                labels.setColumnInplace(i, ONE_HOT[label]);
-            }
-            return labels;
-        }
+    /**
+     * Loads the test labels as class indices.
+     * 
+     * @return MNIST test set labels as an array of {@code 10_000} class indices
+     */
+    public static int[] getTestSetLabelIndices() {
+        return readLabelIndices(TEST_LABELS);
+    }
+
+    /**
+     * Maps the training images file for streaming access.
+     * 
+     * @return the memory-mapped MNIST training set images
+     */
+    public static IdxFile openTrainingSetImages() {
+        return IdxFile.open(TRAIN_IMAGES);
+    }
+
+    /**
+     * Maps the test images file for streaming access.
+     * 
+     * @return the memory-mapped MNIST test set images
+     */
+    public static IdxFile openTestSetImages() {
+        return IdxFile.open(TEST_IMAGES);
+    }
+
+    /**
+     * Maps the training labels file for streaming access.
+     * 
+     * @return the memory-mapped MNIST training set labels
+     */
+    public static IdxFile openTrainingSetLabels() {
+        return IdxFile.open(TRAIN_LABELS);
     }
 
-    private static DataInputStream getDataInputStream(String path) throws IOException {
-        DataInputStream ds = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
-        // throw away magic number
-        ds.readInt();
-        return ds;
+    /**
+     * Maps the test labels file for streaming access.
+     * 
+     * @return the memory-mapped MNIST test set labels
+     */
+    public static IdxFile openTestSetLabels() {
+        return IdxFile.open(TEST_LABELS);
+    }
+
+    private static MatrixF readImages(String path, boolean normalize) {
+        // images in the LeCun files are stored in row-major, so each image gets
+        // stored line by line into its own column of the returned matrix
+        return IdxFile.open(path).toMatrix(normalize);
+    }
+
+    private static MatrixF readLabels(String path) {
+        int[] indices = readLabelIndices(path);
+        MatrixF labels = Matrices.createF(NUMBER_OF_DISTINCT_LABELS, indices.length);
+        // one-hot column vectors: row label is 1, all other rows are 0
+        float[] a = labels.getArrayUnsafe();
+        for (int i = 0; i < indices.length; ++i) {
+            a[i * NUMBER_OF_DISTINCT_LABELS + indices[i]] = 1.0f;
+        }
+        return labels;
     }
 
-    // initialize ONE_HOT templates
-    static {
-        for (int i = 0; i < NUMBER_OF_DISTINCT_LABELS; ++i) {
-            // one hot column vector template
-            ONE_HOT[i] = Matrices.createF(NUMBER_OF_DISTINCT_LABELS, 1);
-            // row i is 1, all other rows are 0
-            ONE_HOT[i].set(i, 0, 1.0f);
+    private static int[] readLabelIndices(String path) {
+        IdxFile file = IdxFile.open(path);
+        int[] labels = new int[file.size()];
+        for (int i = 0; i < labels.length; ++i) {
+            labels[i] = file.getUnsignedByte(i);
         }
+        return labels;
     }
 
     private MNIST() {
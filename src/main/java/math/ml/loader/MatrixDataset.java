@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.loader;
+
+import java.util.Arrays;
+
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A {@link Dataset} whose samples are the columns of an in-memory matrix of
+ * inputs together with either the columns of a matrix of expected values or an
+ * array of class labels.
+ */
+public final class MatrixDataset implements Dataset {
+
+    private final float[] inputs;
+    private final float[] expected;
+    private final int[] labels;
+    private final int inputSize;
+    private final int expectedSize;
+    private final int size;
+
+    /**
+     * Creates a dataset from a matrix of input column vectors and a matrix of
+     * the corresponding expected values column vectors.
+     * 
+     * @param inputs   the inputs, one sample per column
+     * @param expected the expected values, one sample per column
+     */
+    public MatrixDataset(MatrixF inputs, MatrixF expected) {
+        if (inputs.numColumns() != expected.numColumns()) {
+            throw new IllegalArgumentException(
+                    "column count mismatch: " + inputs.numColumns() + " != " + expected.numColumns());
+        }
+        this.inputs = inputs.getArrayUnsafe();
+        this.expected = expected.getArrayUnsafe();
+        this.labels = null;
+        this.inputSize = inputs.numRows();
+        this.expectedSize = expected.numRows();
+        this.size = inputs.numColumns();
+    }
+
+    /**
+     * Creates a dataset from a matrix of input column vectors and the class
+     * indices of the samples. The expected values vectors are the one-hot
+     * encodings of the labels.
+     * 
+     * @param inputs     the inputs, one sample per column
+     * @param labels     the class indices, one per sample
+     * @param numClasses the number of distinct classes
+     */
+    public MatrixDataset(MatrixF inputs, int[] labels, int numClasses) {
+        if (inputs.numColumns() != labels.length) {
+            throw new IllegalArgumentException(
+                    "column count mismatch: " + inputs.numColumns() + " != " + labels.length);
+        }
+        this.inputs = inputs.getArrayUnsafe();
+        this.expected = null;
+        this.labels = labels;
+        this.inputSize = inputs.numRows();
+        this.expectedSize = numClasses;
+        this.size = inputs.numColumns();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int inputSize() {
+        return inputSize;
+    }
+
+    @Override
+    public int expectedSize() {
+        return expectedSize;
+    }
+
+    @Override
+    public void copyInput(int sample, float[] dst, int dstOff) {
+        System.arraycopy(inputs, sample * inputSize, dst, dstOff, inputSize);
+    }
+
+    @Override
+    public void copyExpected(int sample, float[] dst, int dstOff) {
+        if (labels != null) {
+            Arrays.fill(dst, dstOff, dstOff + expectedSize, 0.0f);
+            dst[dstOff + labels[sample]] = 1.0f;
+        } else {
+            System.arraycopy(expected, sample * expectedSize, dst, dstOff, expectedSize);
+        }
+    }
+
+    @Override
+    public boolean hasLabels() {
+        return labels != null;
+    }
+
+    @Override
+    public int label(int sample) {
+        if (labels == null) {
+            throw new UnsupportedOperationException("no class labels");
+        }
+        return labels[sample];
+    }
+}
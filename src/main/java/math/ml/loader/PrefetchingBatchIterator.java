@@ -0,0 +1,261 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.loader;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Iterates over a {@link Dataset} for a given number of epochs while a
+ * background thread prepares the upcoming batches (including the reshuffling
+ * at the start of each epoch and an optional augmentation step), so that batch
+ * preparation overlaps with training.
+ * <p>
+ * The iterator owns {@code depth + 1} preallocated {@link Batch} buffers: the
+ * one most recently returned by {@link #next()} and up to {@code depth} batches
+ * that have been prepared ahead of time ({@code depth == 2} amounts to triple
+ * buffering). A batch returned from {@code next()} is handed back to the
+ * producer on the following call of {@code next()} and must not be used after
+ * that. Trailing samples that don't fill a whole batch are skipped in each
+ * epoch.
+ * <p>
+ * The iterator records how often, and for how long, the consumer had to wait
+ * for the producer, which indicates whether the data pipeline keeps up with
+ * training. {@link #close()} stops the background thread.
+ * <p>
+ * If preparing a batch fails, the batches prepared before still get delivered.
+ * After that, every call of {@link #hasNext()} or {@link #next()} throws an
+ * {@code IllegalStateException} whose cause is the failure.
+ */
+public final class PrefetchingBatchIterator implements Iterator<Batch>, AutoCloseable {
+
+    // marks the end of the last epoch
+    private static final Batch END = new Batch(1, 1, 1);
+
+    private final Dataset dataset;
+    private final int batchSize;
+    private final int epochs;
+    private final long seed;
+    private final Consumer<Batch> augmenter;
+    private final BlockingQueue<Batch> free;
+    private final BlockingQueue<Batch> filled;
+    private final Thread producer;
+    private volatile Throwable failure;
+
+    private Batch current;
+    private Batch pending;
+
+    private long deliveredCount;
+    private long waitCount;
+    private long waitTimeNanos;
+
+    /**
+     * Creates an iterator over {@code epochs} epochs of the given dataset that
+     * prefetches up to {@code depth} batches. The samples get shuffled at the
+     * start of each epoch.
+     * 
+     * @param dataset   the dataset
+     * @param batchSize the number of samples per batch
+     * @param depth     the number of batches to prepare ahead of time
+     * @param epochs    the number of epochs to iterate over
+     * @param seed      the seed for the random permutations of the samples
+     */
+    public PrefetchingBatchIterator(Dataset dataset, int batchSize, int depth, int epochs, long seed) {
+        this(dataset, batchSize, depth, epochs, seed, null);
+    }
+
+    /**
+     * Creates an iterator over {@code epochs} epochs of the given dataset that
+     * prefetches up to {@code depth} batches. The samples get shuffled at the
+     * start of each epoch and each batch gets passed to {@code augmenter} (on
+     * the background thread) after it has been filled.
+     * 
+     * @param dataset   the dataset
+     * @param batchSize the number of samples per batch
+     * @param depth     the number of batches to prepare ahead of time
+     * @param epochs    the number of epochs to iterate over
+     * @param seed      the seed for the random permutations of the samples
+     * @param augmenter modifies each batch in place, may be {@code null}
+     */
+    public PrefetchingBatchIterator(Dataset dataset, int batchSize, int depth, int epochs, long seed,
+            Consumer<Batch> augmenter) {
+        this(dataset, batchSize, depth, epochs, seed, false, augmenter);
+    }
+
+    /**
+     * Creates an iterator like
+     * {@link #PrefetchingBatchIterator(Dataset, int, int, int, long, Consumer)}
+     * whose batches hold the class indices of the samples instead of their
+     * expected values if {@code sparseLabels} is {@code true} (see
+     * {@link Batch#getLabels()}).
+     * 
+     * @param dataset      the dataset
+     * @param batchSize    the number of samples per batch
+     * @param depth        the number of batches to prepare ahead of time
+     * @param epochs       the number of epochs to iterate over
+     * @param seed         the seed for the random permutations of the samples
+     * @param sparseLabels whether the batches hold class indices instead of
+     *                     expected values
+     * @param augmenter    modifies each batch in place, may be {@code null}
+     * @throws IllegalArgumentException if {@code sparseLabels} is {@code true}
+     *                                  but the dataset has no class labels
+     */
+    public PrefetchingBatchIterator(Dataset dataset, int batchSize, int depth, int epochs, long seed,
+            boolean sparseLabels, Consumer<Batch> augmenter) {
+        if (batchSize <= 0 || batchSize > dataset.size()) {
+            throw new IllegalArgumentException("batchSize: " + batchSize);
+        }
+        Batch.checkLabels(dataset, sparseLabels);
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth: " + depth);
+        }
+        this.dataset = dataset;
+        this.batchSize = batchSize;
+        this.epochs = epochs;
+        this.seed = seed;
+        this.augmenter = augmenter;
+        this.free = new ArrayBlockingQueue<>(depth + 1);
+        // + 1 for the END marker
+        this.filled = new ArrayBlockingQueue<>(depth + 2);
+        for (int i = 0; i < depth + 1; ++i) {
+            free.add(new Batch(dataset.inputSize(), dataset.expectedSize(), batchSize, sparseLabels));
+        }
+        producer = new Thread(this::produce, "batch-prefetcher");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending == null) {
+            pending = take();
+        }
+        if (pending == END && failure != null) {
+            // END stays pending, so every later call fails the same way
+            throw new IllegalStateException("batch preparation failed", failure);
+        }
+        return pending != END;
+    }
+
+    @Override
+    public Batch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (current != null) {
+            // the previous batch is no longer in use
+            free.add(current);
+        }
+        current = pending;
+        pending = null;
+        ++deliveredCount;
+        return current;
+    }
+
+    /**
+     * Returns the number of batches per epoch.
+     * 
+     * @return the number of batches per epoch
+     */
+    public int batchesPerEpoch() {
+        return dataset.size() / batchSize;
+    }
+
+    /**
+     * Returns the number of batches delivered so far.
+     * 
+     * @return the number of delivered batches
+     */
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * Returns how often the consumer had to wait for a batch that wasn't ready
+     * yet.
+     * 
+     * @return the number of times the consumer had to wait
+     */
+    public long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * Returns the total time the consumer spent waiting for batches.
+     * 
+     * @return the total wait time in nanoseconds
+     */
+    public long getWaitTimeNanos() {
+        return waitTimeNanos;
+    }
+
+    /**
+     * Stops the background thread. The iterator mustn't be used afterwards.
+     */
+    @Override
+    public void close() {
+        producer.interrupt();
+    }
+
+    private Batch take() {
+        Batch batch = filled.poll();
+        if (batch == null) {
+            ++waitCount;
+            long start = System.nanoTime();
+            try {
+                batch = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } finally {
+                waitTimeNanos += System.nanoTime() - start;
+            }
+        }
+        return batch;
+    }
+
+    private void produce() {
+        int[] indices = new int[dataset.size()];
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = i;
+        }
+        SplittableRandom seeds = new SplittableRandom(seed);
+        int batches = batchesPerEpoch();
+        try {
+            for (int epoch = 0; epoch < epochs; ++epoch) {
+                BatchIterator.shuffle(indices, seeds.nextLong());
+                for (int i = 0; i < batches; ++i) {
+                    Batch batch = free.take();
+                    batch.fill(dataset, indices, i * batchSize);
+                    if (augmenter != null) {
+                        augmenter.accept(batch);
+                    }
+                    filled.put(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+            return;
+        } catch (Throwable t) {
+            failure = t;
+        }
+        filled.add(END);
+    }
+}
@@ -15,6 +15,7 @@
  */
 package math.ml.mlp;
 
+import net.jamu.matrix.Matrices;
 import net.jamu.matrix.MatrixF;
 
 public abstract class AbstractLayer implements Layer {
@@ -35,4 +36,27 @@ public abstract class AbstractLayer implements Layer {
     public void setMode(NetworkMode mode) {
         this.mode = mode;
     }
+
+    @Override
+    public void releaseBuffers() {
+        input = null;
+    }
+
+    /**
+     * Returns {@code buffer} if it already has the requested dimensions,
+     * otherwise a new matrix of that size. Layers use this in TRAIN mode to keep
+     * their output and gradient matrices from one batch to the next so that a
+     * training step doesn't allocate once the batch size is stable.
+     * 
+     * @param buffer the buffer from the previous batch, may be {@code null}
+     * @param rows   the number of rows needed
+     * @param cols   the number of columns needed
+     * @return a matrix with the requested dimensions
+     */
+    protected static MatrixF reuse(MatrixF buffer, int rows, int cols) {
+        if (buffer != null && buffer.numRows() == rows && buffer.numColumns() == cols) {
+            return buffer;
+        }
+        return Matrices.createF(rows, cols);
+    }
 }
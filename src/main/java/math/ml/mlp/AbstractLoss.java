@@ -26,6 +26,9 @@ public class AbstractLoss extends AbstractLayer implements Loss {
     protected Consumer<MatrixF> lossCallback;
     protected DoubleConsumer accuracyCallback;
     protected IntFunction<MatrixF> expectedBatchResultsCallback;
+    protected IntFunction<int[]> expectedBatchLabelsCallback;
+    protected MatrixF expectedValues;
+    protected int[] expectedLabels;
 
     int batchNumber = 0;
 
@@ -47,16 +50,108 @@ public class AbstractLoss extends AbstractLayer implements Loss {
         expectedBatchResultsCallback = provider;
     }
 
+    @Override
+    public void registerBatchLabelsProvider(IntFunction<int[]> provider) {
+        expectedBatchLabelsCallback = provider;
+    }
+
+    @Override
+    public void setExpectedValues(MatrixF expected) {
+        expectedValues = expected;
+        expectedLabels = null;
+    }
+
+    @Override
+    public void setExpectedLabels(int[] labels) {
+        expectedLabels = labels;
+        expectedValues = null;
+    }
+
+    /**
+     * Drops the expected values or labels that have been set directly but not
+     * yet been used, so that they can't be mistaken for those of a later batch.
+     * Called by forward passes that don't need the expectations.
+     */
+    protected void clearExpectations() {
+        expectedValues = null;
+        expectedLabels = null;
+    }
+
     /**
-     * Get and return the expected values for this batch by means of the current
-     * batch number. Increases the batch number by one if that succeeds, otherwise
+     * A loss passes its input through unchanged when the network infers, and so
+     * does its frozen snapshot.
+     */
+    @Override
+    public InferenceLayer freeze() {
+        return input -> input;
+    }
+
+    /**
+     * Get and return the expected class indices for this batch. These are either
+     * the labels that have been set directly via {@link #setExpectedLabels(int[])}
+     * or otherwise (unless expected values have been set directly) those
+     * retrieved from a registered batch labels provider by means of the current
+     * batch number. In the latter case, increases the batch number by one if that
+     * succeeds. Returns {@code null} if neither is available, in which case the
+     * one-hot expected values from {@link #getExpectation()} should be used.
+     * <p>
+     * The labels are checked against the shape of {@code prediction}: there must
+     * be one per column, each in the range {@code [0, prediction.numRows())}.
+     * 
+     * @param prediction the predictions for the current batch as column vectors
+     * @return the expected class indices for the current batch or {@code null}
+     * @throws IllegalArgumentException if the number of labels doesn't match the
+     *                                  number of columns or a label is out of
+     *                                  range
+     */
+    public int[] getExpectedLabels(MatrixF prediction) {
+        int[] labels = expectedLabels;
+        if (labels != null) {
+            // use them only once
+            expectedLabels = null;
+        } else if (expectedValues != null) {
+            // directly set expected values take precedence over the provider
+            return null;
+        } else if (expectedBatchLabelsCallback == null
+                || (labels = expectedBatchLabelsCallback.apply(batchNumber)) == null) {
+            return null;
+        } else {
+            ++batchNumber;
+        }
+        checkLabels(labels, prediction.numRows(), prediction.numColumns());
+        return labels;
+    }
+
+    private static void checkLabels(int[] labels, int numClasses, int numColumns) {
+        if (labels.length != numColumns) {
+            throw new IllegalArgumentException(labels.length + " labels for " + numColumns + " columns");
+        }
+        for (int col = 0; col < labels.length; ++col) {
+            int label = labels[col];
+            if (label < 0 || label >= numClasses) {
+                throw new IllegalArgumentException(
+                        "label " + label + " in column " + col + " is not in [0, " + numClasses + ")");
+            }
+        }
+    }
+
+    /**
+     * Get and return the expected values for this batch. These are either the
+     * values that have been set directly via {@link #setExpectedValues(MatrixF)}
+     * or otherwise those retrieved by means of the current batch number. In the
+     * latter case, increases the batch number by one if that succeeds, otherwise
      * returns {@code null}.
      * 
      * @return the expected values for the current batch or {@code null} if the
      *         retrieval doesn't succeed
      */
     public MatrixF getExpectation() {
-        MatrixF expected = null;
+        MatrixF expected = expectedValues;
+        if (expected != null) {
+            // use them only once
+            expectedValues = null;
+            return expected;
+        }
         if (expectedBatchResultsCallback == null
                 || (expected = expectedBatchResultsCallback.apply(batchNumber)) == null) {
             // there is nothing a Loss function can do without knowing what the expected
@@ -15,8 +15,10 @@
  */
 package math.ml.mlp;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.ListIterator;
+import java.util.List;
+import java.util.Objects;
 
 import net.jamu.matrix.MatrixF;
 
@@ -26,6 +28,27 @@ public abstract class AbstractNetwork implements TrainableNetwork {
 
     protected int batchCount = 0;
 
+    protected Optimizer optimizer = new Sgd();
+
+    protected LearningRateSchedule schedule;
+
+    protected long stepCount = 0L;
+
+    // the number of batches whose gradients get accumulated per optimizer step
+    protected int accumulationSteps = 1;
+
+    // the number of batches accumulated since the last optimizer step
+    protected int accumulatedBatches = 0;
+
+    // null unless instrumentation is enabled
+    private volatile Instrumentation instrumentation;
+
+    // the number of layers per checkpointed segment, 0 if checkpointing is off
+    private int checkpointSegmentLength = 0;
+
+    // the inputs of the checkpointed segments, reused from batch to batch
+    private MatrixF[] checkpoints = new MatrixF[0];
+
     public AbstractNetwork() {
     }
 
@@ -45,30 +68,355 @@ public abstract class AbstractNetwork implements TrainableNetwork {
             // function
             return null;
         }
-        for (Layer layer : layers) {
+        Instrumentation instrumentation = this.instrumentation;
+        int segmentLength = checkpointSegmentLength;
+        if (segmentLength > 0 && segmentLength < layers.size()) {
+            trainCheckpointed(input, segmentLength, instrumentation);
+        } else {
+            input = forward(0, layers.size(), input, instrumentation);
+            // input is now the output from the last layer which is the loss function,
+            // thus it holds the gradient of the loss function. Now do the
+            // back-propagation.
+            backward(0, layers.size(), input, instrumentation);
+        }
+        completeBatch(learningRate);
+        return this;
+    }
+
+    /**
+     * The forward pass only keeps the inputs of the segments of
+     * {@code segmentLength} layers (the checkpoints) and doesn't let the layers
+     * retain anything except for the last segment. The backward pass then
+     * recomputes the forward pass of each segment from its checkpoint,
+     * back-propagates through it and releases the buffers of its layers again.
+     */
+    private void trainCheckpointed(MatrixF input, int segmentLength, Instrumentation instrumentation) {
+        int size = layers.size();
+        int segments = (size + segmentLength - 1) / segmentLength;
+        if (checkpoints.length != segments) {
+            checkpoints = new MatrixF[segments];
+        }
+        int last = (segments - 1) * segmentLength;
+        for (int s = 0, from = 0; from < last; ++s, from += segmentLength) {
+            // a copy, as the layers of the segment may work in place
+            checkpoints[s] = copy(input, checkpoints[s]);
+            for (int i = from; i < from + segmentLength; ++i) {
+                Layer layer = layers.get(i);
+                // INFER mode doesn't retain anything, but the dropout masks must be drawn
+                layer.setMode(layer instanceof Dropout ? NetworkMode.TRAIN : NetworkMode.INFER);
+                input = instrumentation == null ? layer.forward(input) : instrumentation.forward(i, layer, input);
+            }
+        }
+        MatrixF grads = backward(last, size, forward(last, size, input, instrumentation), instrumentation);
+        for (int s = segments - 2; s >= 0; --s) {
+            int from = s * segmentLength;
+            int to = from + segmentLength;
+            for (int i = from; i < to; ++i) {
+                if (layers.get(i) instanceof Dropout) {
+                    ((Dropout) layers.get(i)).replayNextForward();
+                }
+            }
+            forward(from, to, checkpoints[s], instrumentation);
+            grads = backward(from, to, grads, instrumentation);
+            for (int i = from; i < to; ++i) {
+                layers.get(i).releaseBuffers();
+            }
+        }
+    }
+
+    private MatrixF forward(int from, int to, MatrixF input, Instrumentation instrumentation) {
+        for (int i = from; i < to; ++i) {
+            Layer layer = layers.get(i);
             layer.setMode(NetworkMode.TRAIN);
-            input = layer.forward(input);
+            input = instrumentation == null ? layer.forward(input) : instrumentation.forward(i, layer, input);
         }
-        // input is now the output from the last layer which is the loss function, thus
-        // it holds the gradient of the loss function. Now do the back-propagation.
-        ListIterator<Layer> it = layers.listIterator(layers.size());
-        while (it.hasPrevious()) {
-            Layer layer = it.previous();
+        return input;
+    }
+
+    private MatrixF backward(int from, int to, MatrixF grads, Instrumentation instrumentation) {
+        for (int i = to - 1; i >= from; --i) {
+            Layer layer = layers.get(i);
             if (layer instanceof Loss && !(layer instanceof SoftmaxCrossEntropyLoss)) {
                 // a Loss returns the gradient from its forward() method, its backward() method
                 // does nothing
                 continue;
             }
             // propagate the gradients backwards to the previous layer
-            input = layer.backward(input, learningRate);
+            grads = instrumentation == null ? layer.backward(grads) : instrumentation.backward(i, layer, grads);
+        }
+        return grads;
+    }
+
+    private static MatrixF copy(MatrixF matrix, MatrixF buffer) {
+        if (buffer == null || buffer.numRows() != matrix.numRows() || buffer.numColumns() != matrix.numColumns()) {
+            return matrix.copy();
+        }
+        return buffer.setInplace(matrix);
+    }
+
+    /**
+     * Called when the gradients of a batch have been added to the gradient sums
+     * of the parameters. Makes an optimizer step once the configured number of
+     * batches has been accumulated.
+     */
+    void completeBatch(float learningRate) {
+        if (++accumulatedBatches >= accumulationSteps) {
+            step(learningRate);
         }
         ++batchCount;
-        return this;
+    }
+
+    /**
+     * Lets the {@link Optimizer} apply the accumulated gradients of all
+     * {@link Parameter}s and zeroes the gradients afterwards. This can also be
+     * called directly to apply the gradients of fewer batches than configured
+     * by {@link #setGradientAccumulationSteps(int)}, e.g. at the end of an
+     * epoch.
+     * 
+     * @param learningRate the learning rate
+     */
+    public void step(float learningRate) {
+        for (int i = 0; i < layers.size(); ++i) {
+            List<Parameter> parameters = layers.get(i).getParameters();
+            for (int j = 0; j < parameters.size(); ++j) {
+                Parameter parameter = parameters.get(j);
+                if (parameter.getSamples() > 0) {
+                    optimizer.update(parameter, learningRate);
+                }
+                parameter.zeroGradient();
+            }
+        }
+        accumulatedBatches = 0;
+        ++stepCount;
+    }
+
+    /**
+     * Sets the number of batches whose gradients get accumulated before the
+     * optimizer makes a step (1 by default). As the {@link Optimizer} applies the
+     * average gradient over all accumulated samples, {@code steps} batches of
+     * size {@code m} produce the same update (up to floating-point rounding) as
+     * a single batch of size {@code steps * m}, while only the activations of a
+     * batch of size {@code m} have to be kept in memory. The training methods
+     * of {@link DataParallelTrainer} honor this setting as well.
+     * 
+     * @param steps the number of batches per optimizer step
+     */
+    public void setGradientAccumulationSteps(int steps) {
+        if (steps <= 0) {
+            throw new IllegalArgumentException("steps: " + steps);
+        }
+        accumulationSteps = steps;
+    }
+
+    /**
+     * Returns the number of batches whose gradients get accumulated per
+     * optimizer step.
+     * 
+     * @return the number of batches per optimizer step
+     */
+    public int getGradientAccumulationSteps() {
+        return accumulationSteps;
+    }
+
+    /**
+     * Enables activation checkpointing for {@link #train(MatrixF, float)} if
+     * {@code layers > 0}. The layers get grouped into consecutive segments of
+     * that many layers. The forward pass keeps only a copy of the input of each
+     * segment, and the backward pass recomputes the activations of one segment
+     * at a time from that copy. The buffers of all but the last segment get
+     * released after their backward pass, at the cost of one additional forward
+     * pass and of reallocating those buffers on each training step. With
+     * {@code n} layers, a segment length of about {@code sqrt(n)} minimizes the
+     * retained memory. {@link Dropout} masks get replayed, so the result is the
+     * same as without checkpointing (up to floating-point rounding). Doesn't
+     * affect {@link DataParallelTrainer}.
+     * 
+     * @param layers the number of layers per segment, {@code 0} disables
+     *               checkpointing
+     */
+    public void setCheckpointSegmentLength(int layers) {
+        if (layers < 0) {
+            throw new IllegalArgumentException("layers: " + layers);
+        }
+        if (layers == 0) {
+            checkpoints = new MatrixF[0];
+        }
+        checkpointSegmentLength = layers;
+    }
+
+    /**
+     * Returns the number of layers per checkpointed segment.
+     * 
+     * @return the segment length or {@code 0} if checkpointing is disabled
+     */
+    public int getCheckpointSegmentLength() {
+        return checkpointSegmentLength;
+    }
+
+    /**
+     * Returns the number of batches whose gradients have been accumulated but
+     * not yet applied by an optimizer step.
+     * 
+     * @return the number of pending batches
+     */
+    public int getAccumulatedBatches() {
+        return accumulatedBatches;
+    }
+
+    /**
+     * Returns the trainable parameters of all layers of this network.
+     * 
+     * @return the parameters of this network
+     */
+    public List<Parameter> getParameters() {
+        ArrayList<Parameter> parameters = new ArrayList<>();
+        for (Layer layer : layers) {
+            parameters.addAll(layer.getParameters());
+        }
+        return parameters;
+    }
+
+    /**
+     * Sets the {@link Optimizer} that applies the gradients (plain {@link Sgd} by
+     * default).
+     * 
+     * @param optimizer the update rule to use
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = Objects.requireNonNull(optimizer);
+    }
+
+    /**
+     * Sets the schedule that determines the learning rate for each optimizer
+     * step in {@link #train(MatrixF, MatrixF)}.
+     * 
+     * @param schedule the learning rate schedule
+     */
+    public void setLearningRateSchedule(LearningRateSchedule schedule) {
+        this.schedule = Objects.requireNonNull(schedule);
+    }
+
+    /**
+     * Returns the learning rate that the learning rate schedule prescribes for
+     * the next optimizer step.
+     * 
+     * @return the learning rate for the next step
+     * @throws IllegalStateException if no learning rate schedule has been set
+     */
+    public float getLearningRate() {
+        if (schedule == null) {
+            throw new IllegalStateException("no learning rate schedule");
+        }
+        return schedule.getLearningRate(stepCount);
+    }
+
+    /**
+     * Passes the latest validation accuracy on to the learning rate schedule (if
+     * any), so that adaptive schedules can react to it.
+     * 
+     * @param accuracy the validation accuracy
+     */
+    public void onValidationAccuracyComputed(double accuracy) {
+        if (schedule != null) {
+            schedule.onValidationAccuracy(accuracy);
+        }
+    }
+
+    /**
+     * Enables or disables the recording of per-layer wall time, estimated
+     * FLOPs, allocated bytes and throughput in {@link #train(MatrixF, float)} and
+     * {@link #infer(MatrixF)}. While enabled, each pass of a layer also emits a
+     * {@code math.ml.mlp.LayerPass} JFR event (if that event is enabled in the
+     * running JFR recording). Disabling discards the recorded metrics.
+     * 
+     * @param enabled whether to record per-layer metrics
+     */
+    public void setInstrumentationEnabled(boolean enabled) {
+        if (enabled != (instrumentation != null)) {
+            instrumentation = enabled ? new Instrumentation() : null;
+        }
+    }
+
+    /**
+     * Returns a snapshot of the per-layer metrics recorded since instrumentation
+     * was enabled or last reset. May be called from any thread.
+     * 
+     * @return the metrics of all layers that have been run so far, empty if
+     *         instrumentation is disabled
+     */
+    public List<LayerMetrics> getLayerMetrics() {
+        Instrumentation instrumentation = this.instrumentation;
+        return instrumentation == null ? List.of() : instrumentation.getMetrics(layers);
+    }
+
+    /**
+     * Resets the recorded per-layer metrics to zero.
+     */
+    public void resetLayerMetrics() {
+        Instrumentation instrumentation = this.instrumentation;
+        if (instrumentation != null) {
+            instrumentation.reset();
+        }
+    }
+
+    @Override
+    public Network train(MatrixF input, MatrixF expected, float learningRate) {
+        if (layers.isEmpty() || !(layers.get(layers.size() - 1) instanceof Loss)) {
+            return null;
+        }
+        ((Loss) layers.get(layers.size() - 1)).setExpectedValues(expected);
+        return train(input, learningRate);
+    }
+
+    /**
+     * Trains on a batch whose expected values are given as class indices instead
+     * of one-hot column vectors.
+     * 
+     * @param input        the inputs of the batch as column vectors
+     * @param labels       the expected class index for each column of the batch
+     * @param learningRate the learning rate
+     * @return this network or {@code null} if training isn't possible
+     */
+    public Network train(MatrixF input, int[] labels, float learningRate) {
+        if (layers.isEmpty() || !(layers.get(layers.size() - 1) instanceof Loss)) {
+            return null;
+        }
+        ((Loss) layers.get(layers.size() - 1)).setExpectedLabels(labels);
+        return train(input, learningRate);
+    }
+
+    /**
+     * Trains on a batch whose expected values are given as class indices with the
+     * learning rate from the learning rate schedule.
+     * 
+     * @param input  the inputs of the batch as column vectors
+     * @param labels the expected class index for each column of the batch
+     * @return this network or {@code null} if training isn't possible
+     * @throws IllegalStateException if no learning rate schedule has been set
+     */
+    public Network train(MatrixF input, int[] labels) {
+        return train(input, labels, getLearningRate());
+    }
+
+    /**
+     * Trains on a batch with the learning rate from the
+     * {@link #setLearningRateSchedule(LearningRateSchedule) learning rate
+     * schedule}.
+     * 
+     * @param input    the inputs of the batch as column vectors
+     * @param expected the expected values of the batch as column vectors
+     * @return this network or {@code null} if training isn't possible
+     * @throws IllegalStateException if no learning rate schedule has been set
+     */
+    public Network train(MatrixF input, MatrixF expected) {
+        return train(input, expected, getLearningRate());
     }
 
     @Override
     public MatrixF infer(MatrixF input) {
-        for (Layer layer : layers) {
+        Instrumentation instrumentation = this.instrumentation;
+        for (int i = 0; i < layers.size(); ++i) {
+            Layer layer = layers.get(i);
             layer.setMode(NetworkMode.INFER);
             if (layer instanceof Loss && !(layer instanceof SoftmaxCrossEntropyLoss)) {
                 // a Loss would return the gradient from its forward() method which is not a
@@ -78,15 +426,80 @@ public abstract class AbstractNetwork implements TrainableNetwork {
                 // mode. We assume that a Loss, if there is any, is always the last layer
                 break;
             }
-            input = layer.forward(input);
+            input = instrumentation == null ? layer.forward(input) : instrumentation.forward(i, layer, input);
+        }
+        // this is the prediction of the last layer
+        return input;
+    }
+
+    /**
+     * Creates an immutable snapshot of this network which can be used for
+     * inference concurrently from any number of threads. Training this network
+     * further doesn't affect the returned snapshot.
+     * 
+     * @return a frozen inference-only copy of this network
+     */
+    public FrozenNetwork freeze() {
+        return freeze(Precision.FLOAT32);
+    }
+
+    /**
+     * Creates an immutable snapshot of this network like {@link #freeze()} does,
+     * but with the weights of all {@link Hidden} layers stored in the given
+     * {@link Precision}.
+     * 
+     * @param precision the precision of the stored weights
+     * @return a frozen inference-only copy of this network
+     */
+    public FrozenNetwork freeze(Precision precision) {
+        ArrayList<InferenceLayer> frozen = new ArrayList<>(layers.size());
+        for (Layer layer : layers) {
+            if (layer instanceof Loss && !(layer instanceof SoftmaxCrossEntropyLoss)) {
+                // same reasoning as in infer(): a Loss is always the last layer and
+                // (except for SoftmaxCrossEntropyLoss) doesn't produce a prediction
+                break;
+            }
+            if (layer instanceof Hidden) {
+                frozen.add(((Hidden) layer).freeze(precision));
+            } else {
+                frozen.add(layer.freeze());
+            }
         }
+        return new FrozenNetwork(frozen);
+    }
+
+    /**
+     * Creates an int8 quantized inference-only snapshot of this network. See
+     * {@link Quantization#quantize(FrozenNetwork, Iterable)}.
+     * 
+     * @param calibrationBatches sample inputs (as column vectors) that are used
+     *                           to pick the activation scales
+     * @return a quantized frozen copy of this network
+     */
+    public FrozenNetwork quantize(Iterable<MatrixF> calibrationBatches) {
+        return Quantization.quantize(freeze(), calibrationBatches);
+    }
+
+    /**
+     * Persists the current weights and biases of all {@link Hidden} layers that
+     * have been configured to store them.
+     */
+    public void checkpoint() {
         for (Layer layer : layers) {
             if (layer instanceof Hidden) {
                 ((Hidden) layer).storeWeights();
                 ((Hidden) layer).storeBiases();
             }
         }
-        // this is the prediction of the last layer
-        return input;
+    }
+
+    /**
+     * Writes the topology and the current weights and biases of this network into
+     * a single {@link Checkpoint} file.
+     * 
+     * @param file the checkpoint file to write
+     */
+    public void checkpoint(Path file) {
+        Checkpoint.write(layers, file);
     }
 }
@@ -16,12 +16,15 @@
 package math.ml.mlp;
 
 import net.jamu.matrix.FFunction;
+import net.jamu.matrix.Matrices;
 import net.jamu.matrix.MatrixF;
 
 public class Activation extends AbstractLayer {
 
     protected final FFunction fun;
     protected final FFunction deriv;
+    // j x m, reused in TRAIN mode
+    private MatrixF output;
 
     public Activation(FFunction fun, FFunction deriv) {
         this.fun = fun;
@@ -32,18 +35,73 @@ public class Activation extends AbstractLayer {
     public MatrixF forward(MatrixF input) {
         // j x m
         super.forward(input);
-        return input.map(fun);
+        if (mode == NetworkMode.TRAIN) {
+            output = reuse(output, input.numRows(), input.numColumns());
+            float[] in = input.getArrayUnsafe();
+            activate(in, output.getArrayUnsafe(), in.length);
+            return output;
+        }
+        return apply(input);
     }
 
     // outputGrads : j x m
     @Override
-    public MatrixF backward(MatrixF outputGrads, float unused) {
+    public MatrixF backward(MatrixF outputGrads) {
         if (mode == NetworkMode.INFER) {
             return null;
         }
-        // (j x m) o (j x m)
-        MatrixF out = outputGrads.hadamard(input.mapInplace(deriv));
+        // (j x m) o (j x m), computed in place
+        float[] grads = outputGrads.getArrayUnsafe();
+        multiplyDerivative(input.getArrayUnsafe(), grads, grads.length);
         input = null;
-        return out;
+        return outputGrads;
+    }
+
+    @Override
+    public void releaseBuffers() {
+        super.releaseBuffers();
+        output = null;
+    }
+
+    @Override
+    public InferenceLayer freeze() {
+        // capture only the (stateless) function, not this layer and its buffers
+        FFunction fun = this.fun;
+        return input -> {
+            MatrixF output = Matrices.sameDimF(input);
+            float[] in = input.getArrayUnsafe();
+            float[] out = output.getArrayUnsafe();
+            for (int i = 0; i < in.length; ++i) {
+                out[i] = fun.apply(in[i]);
+            }
+            return output;
+        };
+    }
+
+    /**
+     * Computes {@code out[i] = fun(in[i])} for {@code 0 <= i < length}.
+     * Subclasses may override this with a faster {@link Kernels kernel}.
+     */
+    protected void activate(float[] in, float[] out, int length) {
+        for (int i = 0; i < length; ++i) {
+            out[i] = fun.apply(in[i]);
+        }
+    }
+
+    /**
+     * Computes {@code grads[i] *= deriv(in[i])} for {@code 0 <= i < length}.
+     * Subclasses may override this with a faster {@link Kernels kernel}.
+     */
+    protected void multiplyDerivative(float[] in, float[] grads, int length) {
+        for (int i = 0; i < length; ++i) {
+            grads[i] *= deriv.apply(in[i]);
+        }
+    }
+
+    private MatrixF apply(MatrixF input) {
+        MatrixF output = Matrices.sameDimF(input);
+        float[] in = input.getArrayUnsafe();
+        activate(in, output.getArrayUnsafe(), in.length);
+        return output;
     }
 }
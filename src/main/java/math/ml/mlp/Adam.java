@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * The Adam optimizer (Kingma &amp; Ba, 2015). The first and second moment
+ * estimates are kept in the optimizer state arrays of each {@link Parameter}
+ * and the whole update (including the bias correction) is done in a single
+ * pass over the parameter's backing array.
+ */
+public class Adam implements Optimizer {
+
+    protected final float beta1;
+    protected final float beta2;
+    protected final float epsilon;
+    // decoupled weight decay, always 0 for Adam
+    protected final float weightDecay;
+
+    public Adam() {
+        this(0.9f, 0.999f, 1e-8f);
+    }
+
+    public Adam(float beta1, float beta2, float epsilon) {
+        this(beta1, beta2, epsilon, 0.0f);
+    }
+
+    protected Adam(float beta1, float beta2, float epsilon, float weightDecay) {
+        if (beta1 < 0.0f || beta1 >= 1.0f) {
+            throw new IllegalArgumentException("beta1: " + beta1);
+        }
+        if (beta2 < 0.0f || beta2 >= 1.0f) {
+            throw new IllegalArgumentException("beta2: " + beta2);
+        }
+        if (epsilon <= 0.0f) {
+            throw new IllegalArgumentException("epsilon: " + epsilon);
+        }
+        if (weightDecay < 0.0f) {
+            throw new IllegalArgumentException("weightDecay: " + weightDecay);
+        }
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+        this.weightDecay = weightDecay;
+    }
+
+    @Override
+    public void update(Parameter parameter, float learningRate) {
+        float[] w = parameter.getValue().getArrayUnsafe();
+        float[] g = parameter.getGradient().getArrayUnsafe();
+        float[][] state = parameter.getOptimizerState(2);
+        float[] m = state[0];
+        float[] v = state[1];
+        long t = parameter.incrementUpdateCount();
+        float b1 = beta1;
+        float b2 = beta2;
+        float eps = epsilon;
+        float avg = 1.0f / parameter.getSamples();
+        // bias corrections
+        float c1 = 1.0f / (float) (1.0 - Math.pow(b1, t));
+        float c2 = 1.0f / (float) (1.0 - Math.pow(b2, t));
+        // biases don't get decayed
+        float decay = parameter.isDecayed() ? 1.0f - learningRate * weightDecay : 1.0f;
+        for (int i = 0; i < w.length; ++i) {
+            float gi = avg * g[i];
+            float mi = b1 * m[i] + (1.0f - b1) * gi;
+            float vi = b2 * v[i] + (1.0f - b2) * gi * gi;
+            m[i] = mi;
+            v[i] = vi;
+            w[i] = decay * w[i] - learningRate * (c1 * mi) / ((float) Math.sqrt(c2 * vi) + eps);
+        }
+    }
+}
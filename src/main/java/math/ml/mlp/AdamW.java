@@ -0,0 +1,38 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * Adam with decoupled weight decay (Loshchilov &amp; Hutter, 2019): in addition
+ * to the Adam update, each weight gets shrunk by
+ * {@code learningRate * weightDecay * w} in the same pass. Biases (i.e.,
+ * parameters for which {@link Parameter#isDecayed()} returns {@code false})
+ * are not decayed.
+ */
+public class AdamW extends Adam {
+
+    public AdamW() {
+        this(0.01f);
+    }
+
+    public AdamW(float weightDecay) {
+        this(0.9f, 0.999f, 1e-8f, weightDecay);
+    }
+
+    public AdamW(float beta1, float beta2, float epsilon, float weightDecay) {
+        super(beta1, beta2, epsilon, weightDecay);
+    }
+}
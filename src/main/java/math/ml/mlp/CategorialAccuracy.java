@@ -15,7 +15,6 @@
  */
 package math.ml.mlp;
 
-import math.dl.MultiClassAccuracy;
 import net.jamu.matrix.MatrixF;
 
 /**
@@ -24,21 +23,49 @@ import net.jamu.matrix.MatrixF;
 public final class CategorialAccuracy {
 
     /**
-     * Calculation of the accuracy of a categorial classifier.
+     * Returns the fraction of columns of {@code pred} whose largest element is
+     * at the same row as the largest element of the same column of
+     * {@code expect}.
      * 
-     * @param pred
-     * @param expect
-     * @return
+     * @param pred   predicted values as a matrix of column vectors
+     * @param expect expected values as a matrix of column vectors
+     * @return the accuracy
      */
     public static double computeAccuracy(MatrixF pred, MatrixF expect) {
-        MultiClassAccuracy multiClass = new MultiClassAccuracy();
-        int length = pred.numRows();
+        Kernels kernels = Kernels.get();
+        int rows = pred.numRows();
+        int cols = pred.numColumns();
         float[] a = pred.getArrayUnsafe();
         float[] b = expect.getArrayUnsafe();
-        for (int off = 0; off < length * pred.numColumns(); off += length) {
-            multiClass.compareF(length, a, off, b);
+        int correct = 0;
+        for (int col = 0, off = 0; col < cols; ++col, off += rows) {
+            if (kernels.argmax(a, off, rows) == kernels.argmax(b, off, rows)) {
+                ++correct;
+            }
         }
-        return multiClass.getAverage();
+        return cols == 0 ? 0.0 : (double) correct / cols;
+    }
+
+    /**
+     * Returns the fraction of columns of {@code pred} whose largest element is
+     * at the row given by the class index for that column in {@code labels}.
+     * 
+     * @param pred   predicted values as a matrix of column vectors
+     * @param labels the expected class index for each column
+     * @return the accuracy
+     */
+    public static double computeAccuracy(MatrixF pred, int[] labels) {
+        Kernels kernels = Kernels.get();
+        int rows = pred.numRows();
+        int cols = pred.numColumns();
+        float[] a = pred.getArrayUnsafe();
+        int correct = 0;
+        for (int col = 0, off = 0; col < cols; ++col, off += rows) {
+            if (kernels.argmax(a, off, rows) == labels[col]) {
+                ++correct;
+            }
+        }
+        return cols == 0 ? 0.0 : (double) correct / cols;
     }
 
     private CategorialAccuracy() {
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A single-file checkpoint of a network's topology together with the weights
+ * and biases of all its {@link Hidden} layers.
+ * <p>
+ * The file consists of a header, a table describing each layer and, for each
+ * {@code Hidden} layer, two 64-byte aligned sections of little-endian floats
+ * (column-major weights followed by the biases). The sections are read through
+ * {@link FileChannel#map memory-mapping}, so all processes that open the same
+ * checkpoint share a single copy of it in the OS page cache and loading a model
+ * boils down to one bulk copy per tensor.
+ * <p>
+ * Weights stored in the older one-file-per-tensor format ({@code ./data/w_<name>}
+ * and {@code ./data/b_<name>}) can be imported by constructing the
+ * {@code Hidden} layers with {@code loadWeightsAndBiases == true} and writing a
+ * checkpoint of that network via {@link AbstractNetwork#checkpoint(Path)}.
+ */
+public final class Checkpoint {
+
+    private static final int MAGIC = 0x43504C4D; // "MLPC" in little-endian
+    private static final int VERSION = 1;
+    private static final int ALIGNMENT = 64;
+    // magic, version, layer count, table size
+    private static final int HEADER_BYTES = 16;
+    // kind, parameter, rows, columns, weights offset, biases offset, name length
+    private static final int ENTRY_BYTES = 36;
+
+    private static final int HIDDEN = 1;
+    private static final int RELU = 2;
+    private static final int GELU = 3;
+    private static final int SOFTMAX = 4;
+    private static final int DROPOUT = 5;
+
+    private final List<Entry> entries;
+
+    private Checkpoint(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Writes the topology and the parameters of the given layers into a single
+     * checkpoint file. A trailing {@link Loss} layer isn't part of the
+     * checkpoint, except for a {@link SoftmaxCrossEntropyLoss} which gets stored
+     * as a {@link Softmax}.
+     * 
+     * @param layers the layers to checkpoint
+     * @param file   the checkpoint file to write
+     * @throws IllegalArgumentException if a layer can't be checkpointed
+     */
+    public static void write(List<Layer> layers, Path file) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        ArrayList<Hidden> hiddens = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer instanceof SoftmaxCrossEntropyLoss || layer instanceof Softmax) {
+                entries.add(new Entry(SOFTMAX, "", 0.0f, 0, 0));
+            } else if (layer instanceof Loss) {
+                // a Loss, if there is any, is always the last layer
+                break;
+            } else if (layer instanceof Hidden) {
+                Hidden hidden = (Hidden) layer;
+                entries.add(new Entry(HIDDEN, hidden.name, 0.0f, hidden.weights.numRows(),
+                        hidden.weights.numColumns()));
+                hiddens.add(hidden);
+                // a fused activation is stored as a layer of its own
+                if (layer instanceof HiddenRelu) {
+                    entries.add(new Entry(RELU, "", 0.0f, 0, 0));
+                } else if (layer instanceof HiddenGelu) {
+                    entries.add(new Entry(GELU, "", 0.0f, 0, 0));
+                } else if (layer instanceof FusedHidden) {
+                    throw new IllegalArgumentException("can't checkpoint " + layer.getClass().getName());
+                }
+            } else if (layer instanceof Relu) {
+                entries.add(new Entry(RELU, "", 0.0f, 0, 0));
+            } else if (layer instanceof Gelu) {
+                entries.add(new Entry(GELU, "", 0.0f, 0, 0));
+            } else if (layer instanceof Dropout) {
+                entries.add(new Entry(DROPOUT, "", ((Dropout) layer).getDropoutRate(), 0, 0));
+            } else {
+                throw new IllegalArgumentException("can't checkpoint " + layer.getClass().getName());
+            }
+        }
+        int tableBytes = tableBytes(entries);
+        long offset = tableBytes;
+        for (Entry entry : entries) {
+            if (entry.kind == HIDDEN) {
+                entry.weightsOffset = offset = align(offset, ALIGNMENT);
+                offset += (long) Float.BYTES * entry.rows * entry.cols;
+                entry.biasesOffset = offset = align(offset, ALIGNMENT);
+                offset += (long) Float.BYTES * entry.rows;
+            }
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer table = ByteBuffer.allocate(tableBytes).order(ByteOrder.LITTLE_ENDIAN);
+            table.putInt(MAGIC).putInt(VERSION).putInt(entries.size()).putInt(tableBytes);
+            for (Entry entry : entries) {
+                byte[] name = entry.nameBytes();
+                table.putInt(entry.kind).putFloat(entry.parameter).putInt(entry.rows).putInt(entry.cols)
+                        .putLong(entry.weightsOffset).putLong(entry.biasesOffset).putInt(name.length).put(name);
+                table.position(align(table.position(), 4));
+            }
+            table.flip();
+            while (table.hasRemaining()) {
+                ch.write(table, table.position());
+            }
+            int i = 0;
+            for (Entry entry : entries) {
+                if (entry.kind == HIDDEN) {
+                    Hidden hidden = hiddens.get(i++);
+                    put(ch, entry.weightsOffset, hidden.weights);
+                    put(ch, entry.biasesOffset, hidden.biases);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Opens an existing checkpoint file.
+     * 
+     * @param file the checkpoint file
+     * @return the opened checkpoint
+     * @throws IllegalArgumentException if {@code file} isn't a checkpoint file
+     */
+    public static Checkpoint open(Path file) {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer table = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), HEADER_BYTES));
+            table.order(ByteOrder.LITTLE_ENDIAN);
+            if (table.remaining() < HEADER_BYTES || table.getInt() != MAGIC || table.getInt() != VERSION) {
+                throw new IllegalArgumentException("not a checkpoint file: " + file);
+            }
+            int count = table.getInt();
+            int tableBytes = table.getInt();
+            table = ch.map(FileChannel.MapMode.READ_ONLY, 0, tableBytes);
+            table.order(ByteOrder.LITTLE_ENDIAN).position(HEADER_BYTES);
+            ArrayList<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                int kind = table.getInt();
+                float parameter = table.getFloat();
+                int rows = table.getInt();
+                int cols = table.getInt();
+                long weightsOffset = table.getLong();
+                long biasesOffset = table.getLong();
+                byte[] name = new byte[table.getInt()];
+                table.get(name);
+                table.position(align(table.position(), 4));
+                Entry entry = new Entry(kind, new String(name, StandardCharsets.UTF_8), parameter, rows, cols);
+                if (kind == HIDDEN) {
+                    entry.weights = ch.map(FileChannel.MapMode.READ_ONLY, weightsOffset,
+                            (long) Float.BYTES * rows * cols);
+                    entry.biases = ch.map(FileChannel.MapMode.READ_ONLY, biasesOffset, (long) Float.BYTES * rows);
+                }
+                entries.add(entry);
+            }
+            // the mappings stay valid after the channel has been closed
+            return new Checkpoint(entries);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates a {@link FrozenNetwork} from the topology and parameters stored in
+     * this checkpoint.
+     * 
+     * @return a new inference-only network
+     */
+    public FrozenNetwork toFrozenNetwork() {
+        return toFrozenNetwork(Precision.FLOAT32);
+    }
+
+    /**
+     * Creates a {@link FrozenNetwork} from this checkpoint whose {@link Hidden}
+     * layers store their weights in the given {@link Precision}.
+     * 
+     * @param precision the precision of the stored weights
+     * @return the inference network stored in this checkpoint
+     */
+    public FrozenNetwork toFrozenNetwork(Precision precision) {
+        ArrayList<InferenceLayer> layers = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            switch (entry.kind) {
+            case HIDDEN:
+                if (precision == Precision.FLOAT32) {
+                    layers.add(new FrozenHidden(entry.getWeights(), entry.getBiases(), entry.name));
+                } else {
+                    layers.add(new HalfPrecisionHidden(entry.getWeights(), entry.getBiases(), entry.name, precision,
+                            null));
+                }
+                break;
+            case RELU:
+                layers.add(new Relu().freeze());
+                break;
+            case GELU:
+                layers.add(new Gelu().freeze());
+                break;
+            case SOFTMAX:
+                layers.add(new Softmax().freeze());
+                break;
+            case DROPOUT:
+                layers.add(new Dropout(entry.parameter).freeze());
+                break;
+            default:
+                throw new IllegalStateException("unknown layer kind: " + entry.kind);
+            }
+        }
+        return new FrozenNetwork(layers);
+    }
+
+    /**
+     * Copies the stored weights and biases into the {@link Hidden} layers of the
+     * given network that have the same name.
+     * 
+     * @param network the network whose {@code Hidden} layers should be restored
+     * @throws IllegalArgumentException if a layer with a matching name has
+     *                                  different dimensions
+     */
+    public void restore(AbstractNetwork network) {
+        for (Layer layer : network.layers) {
+            if (layer instanceof Hidden) {
+                Hidden hidden = (Hidden) layer;
+                for (Entry entry : entries) {
+                    if (entry.kind == HIDDEN && entry.name.equals(hidden.name)) {
+                        if (entry.rows != hidden.weights.numRows() || entry.cols != hidden.weights.numColumns()) {
+                            throw new IllegalArgumentException("dimension mismatch for layer " + hidden.name);
+                        }
+                        get(entry.weights, hidden.weights);
+                        get(entry.biases, hidden.biases);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void put(FileChannel ch, long offset, MatrixF matrix) throws IOException {
+        float[] a = matrix.getArrayUnsafe();
+        MappedByteBuffer section = ch.map(FileChannel.MapMode.READ_WRITE, offset, (long) Float.BYTES * a.length);
+        section.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(a);
+        section.force();
+    }
+
+    private static MatrixF get(ByteBuffer section, MatrixF matrix) {
+        section.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(matrix.getArrayUnsafe());
+        return matrix;
+    }
+
+    private static int tableBytes(List<Entry> entries) {
+        int bytes = HEADER_BYTES;
+        for (Entry entry : entries) {
+            bytes += ENTRY_BYTES + align(entry.nameBytes().length, 4);
+        }
+        return bytes;
+    }
+
+    private static int align(int value, int alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+
+    private static long align(long value, int alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+
+    private static final class Entry {
+        final int kind;
+        final String name;
+        final float parameter;
+        final int rows;
+        final int cols;
+        long weightsOffset;
+        long biasesOffset;
+        ByteBuffer weights;
+        ByteBuffer biases;
+
+        Entry(int kind, String name, float parameter, int rows, int cols) {
+            this.kind = kind;
+            this.name = name;
+            this.parameter = parameter;
+            this.rows = rows;
+            this.cols = cols;
+        }
+
+        byte[] nameBytes() {
+            return name.getBytes(StandardCharsets.UTF_8);
+        }
+
+        MatrixF getWeights() {
+            return get(weights, Matrices.createF(rows, cols));
+        }
+
+        MatrixF getBiases() {
+            return get(biases, Matrices.createF(rows, 1));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * Cosine annealing from {@code initial} down to {@code minimum} over
+ * {@code totalSteps} steps. The learning rate stays at {@code minimum}
+ * afterwards.
+ */
+public class CosineDecay implements LearningRateSchedule {
+
+    private final float initial;
+    private final float minimum;
+    private final long totalSteps;
+
+    public CosineDecay(float initial, float minimum, long totalSteps) {
+        if (totalSteps <= 0L) {
+            throw new IllegalArgumentException("totalSteps: " + totalSteps);
+        }
+        this.initial = initial;
+        this.minimum = minimum;
+        this.totalSteps = totalSteps;
+    }
+
+    @Override
+    public float getLearningRate(long step) {
+        if (step >= totalSteps) {
+            return minimum;
+        }
+        double cos = Math.cos(Math.PI * step / totalSteps);
+        return (float) (minimum + 0.5 * (initial - minimum) * (1.0 + cos));
+    }
+}
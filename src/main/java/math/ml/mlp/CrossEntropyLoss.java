@@ -15,7 +15,6 @@
  */
 package math.ml.mlp;
 
-import net.jamu.matrix.Matrices;
 import net.jamu.matrix.MatrixF;
 
 /**
@@ -24,6 +23,10 @@ import net.jamu.matrix.MatrixF;
  */
 public class CrossEntropyLoss extends AbstractLoss {
 
+    // reused from batch to batch
+    private MatrixF gradients;
+    private MatrixF losses;
+
     public CrossEntropyLoss() {
     }
 
@@ -33,6 +36,12 @@ public class CrossEntropyLoss extends AbstractLoss {
     // return gradients
     @Override
     public MatrixF forward(MatrixF prediction) {
+        int[] labels = getExpectedLabels(prediction);
+        if (labels != null) {
+            computeLosses(prediction, labels);
+            computeAccuracy(prediction, labels);
+            return computeGradients(prediction, labels);
+        }
         MatrixF expected = getExpectation();
         if (expected == null) {
             return null;
@@ -43,14 +52,22 @@ public class CrossEntropyLoss extends AbstractLoss {
     }
 
     private MatrixF computeGradients(MatrixF pred, MatrixF expect) {
-        MatrixF gradients = Matrices.createF(pred.numRows(), pred.numColumns());
-        for (int i = 0, colEnd = pred.endCol(), rowEnd = pred.endRow(); i <= colEnd; ++i) {
-            for (int j = 0; j <= rowEnd; ++j) {
-                float expected = expect.getUnsafe(j, i);
-                if (expected != 0.0f) {
-                    gradients.set(j, i, (-expected / clamp(pred.getUnsafe(j, i))));
-                }
-            }
+        MatrixF gradients = this.gradients = reuse(this.gradients, pred.numRows(), pred.numColumns());
+        float[] g = gradients.getArrayUnsafe();
+        Kernels.get().crossEntropyGradient(expect.getArrayUnsafe(), pred.getArrayUnsafe(), g, g.length);
+        return gradients;
+    }
+
+    // the gradient of a one-hot column is -1 / pred at the label, 0 elsewhere
+    private MatrixF computeGradients(MatrixF pred, int[] labels) {
+        MatrixF gradients = this.gradients = reuse(this.gradients, pred.numRows(), pred.numColumns());
+        gradients.zeroInplace();
+        float[] p = pred.getArrayUnsafe();
+        float[] g = gradients.getArrayUnsafe();
+        int rows = pred.numRows();
+        for (int col = 0, off = 0; col < labels.length; ++col, off += rows) {
+            int i = off + labels[col];
+            g[i] = -1.0f / ScalarKernels.clamp(p[i]);
         }
         return gradients;
     }
@@ -65,16 +82,27 @@ public class CrossEntropyLoss extends AbstractLoss {
      */
     private void computeLosses(MatrixF pred, MatrixF expect) {
         if (lossCallback != null) {
-            MatrixF loss = Matrices.createF(1, pred.numColumns());
-            for (int i = 0, colEnd = pred.endCol(), rowEnd = pred.endRow(); i <= colEnd; ++i) {
-                float productSum = 0.0f;
-                for (int j = 0; j <= rowEnd; ++j) {
-                    float expected = expect.getUnsafe(j, i);
-                    if (expected != 0.0f) {
-                        productSum += expected * log(pred.getUnsafe(j, i));
-                    }
-                }
-                loss.setUnsafe(0, i, -productSum);
+            MatrixF loss = losses = reuse(losses, 1, pred.numColumns());
+            Kernels kernels = Kernels.get();
+            float[] p = pred.getArrayUnsafe();
+            float[] e = expect.getArrayUnsafe();
+            float[] l = loss.getArrayUnsafe();
+            int rows = pred.numRows();
+            for (int col = 0, off = 0; col < l.length; ++col, off += rows) {
+                l[col] = kernels.crossEntropy(e, p, off, rows);
+            }
+            lossCallback.accept(loss);
+        }
+    }
+
+    private void computeLosses(MatrixF pred, int[] labels) {
+        if (lossCallback != null) {
+            MatrixF loss = losses = reuse(losses, 1, pred.numColumns());
+            float[] p = pred.getArrayUnsafe();
+            float[] l = loss.getArrayUnsafe();
+            int rows = pred.numRows();
+            for (int col = 0, off = 0; col < l.length; ++col, off += rows) {
+                l[col] = -ScalarKernels.log(p[off + labels[col]]);
             }
             lossCallback.accept(loss);
         }
@@ -92,15 +120,9 @@ public class CrossEntropyLoss extends AbstractLoss {
         }
     }
 
-    private static float log(float x) {
-        return (float) Math.log(clamp(x));
-    }
-
-    private static float clamp(float x) {
-        // x should never be <= 0
-        if (x <= 0.0f) {
-            return Float.MIN_NORMAL;
+    private void computeAccuracy(MatrixF pred, int[] labels) {
+        if (accuracyCallback != null) {
+            accuracyCallback.accept(CategorialAccuracy.computeAccuracy(pred, labels));
         }
-        return x;
     }
 }
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Data-parallel training of an {@link AbstractNetwork} on multiple cores.
+ * <p>
+ * Each mini-batch gets split column-wise into one shard per replica of the
+ * network's layer stack. The replicas share the values of the network's
+ * {@link Parameter}s but have their own gradient buffers, into which they
+ * compute the gradients for their shard in parallel. These get summed up by a
+ * pairwise tree reduction (also in parallel) and are then applied in a single
+ * {@link AbstractNetwork#step(float) optimizer step} of the network, so that,
+ * up to floating-point rounding, a step produces the same update as
+ * {@link AbstractNetwork#train(MatrixF, MatrixF, float)} for the same batch.
+ * With {@link AbstractNetwork#setGradientAccumulationSteps(int) gradient
+ * accumulation} the reduced gradients of several batches get summed up in the
+ * network's parameters before the step.
+ * <p>
+ * The loss and accuracy callbacks registered on the network's {@link Loss}
+ * layer get called once per batch with the losses and the accuracy of the
+ * whole batch. Layers with randomness (i.e., {@link Dropout}) draw independent
+ * random numbers per replica.
+ */
+public final class DataParallelTrainer {
+
+    private final AbstractNetwork network;
+    private final ForkJoinPool pool;
+    // the layer stacks of the replicas
+    private final Layer[][] replicas;
+    // the parameters of the replicas
+    private final Parameter[][] parameters;
+    // the parameters of the network
+    private final Parameter[] masters;
+    private final Shard[] shards;
+
+    /**
+     * Creates a trainer for {@code network} with the given number of replicas
+     * that runs on the common pool.
+     * 
+     * @param network  the network to train
+     * @param replicas the number of replicas (and thus shards per batch)
+     */
+    public DataParallelTrainer(AbstractNetwork network, int replicas) {
+        this(network, replicas, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a trainer for {@code network} with the given number of replicas
+     * that runs on {@code pool}.
+     * 
+     * @param network  the network to train
+     * @param replicas the number of replicas (and thus shards per batch)
+     * @param pool     the pool that executes the replicas
+     * @throws IllegalArgumentException if the network isn't trainable or if it
+     *                                  contains a layer that can't be replicated
+     */
+    public DataParallelTrainer(AbstractNetwork network, int replicas, ForkJoinPool pool) {
+        List<Layer> layers = network.layers;
+        if (replicas <= 0) {
+            throw new IllegalArgumentException("replicas: " + replicas);
+        }
+        if (layers.size() < 2 || !(layers.get(layers.size() - 1) instanceof Loss)) {
+            // training requires at least two layers and the last one must be a loss
+            // function
+            throw new IllegalArgumentException("network isn't trainable");
+        }
+        this.network = network;
+        this.pool = pool;
+        this.replicas = new Layer[replicas][];
+        this.parameters = new Parameter[replicas][];
+        this.shards = new Shard[replicas];
+        this.masters = network.getParameters().toArray(new Parameter[0]);
+        for (int r = 0; r < replicas; ++r) {
+            Shard shard = new Shard();
+            Layer[] stack = new Layer[layers.size()];
+            ArrayList<Parameter> params = new ArrayList<>(masters.length);
+            for (int i = 0; i < stack.length; ++i) {
+                stack[i] = replicate(layers.get(i), shard);
+                params.addAll(stack[i].getParameters());
+            }
+            this.replicas[r] = stack;
+            this.parameters[r] = params.toArray(new Parameter[0]);
+            this.shards[r] = shard;
+        }
+    }
+
+    /**
+     * Trains the network with one batch whose columns get split evenly across
+     * the replicas.
+     * 
+     * @param input        the inputs of the batch as column vectors
+     * @param expected     the expected values of the batch as column vectors
+     * @param learningRate the learning rate
+     * @return the trained network
+     */
+    public Network train(MatrixF input, MatrixF expected, float learningRate) {
+        return train(input, expected, null, learningRate);
+    }
+
+    /**
+     * Trains the network with one batch whose expected values are given as
+     * class indices. The columns get split evenly across the replicas.
+     * 
+     * @param input        the inputs of the batch as column vectors
+     * @param labels       the expected class index for each column of the batch
+     * @param learningRate the learning rate
+     * @return the trained network
+     * @throws IllegalArgumentException if there isn't one label per column or a
+     *                                  label is out of range
+     */
+    public Network train(MatrixF input, int[] labels, float learningRate) {
+        if (labels.length != input.numColumns()) {
+            // the shards would silently pad or drop labels
+            throw new IllegalArgumentException(labels.length + " labels for " + input.numColumns() + " columns");
+        }
+        return train(input, null, labels, learningRate);
+    }
+
+    private Network train(MatrixF input, MatrixF expected, int[] labels, float learningRate) {
+        int batchSize = input.numColumns();
+        int n = Math.min(replicas.length, batchSize);
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(n);
+        for (int r = 0, start = 0; r < n; ++r) {
+            int size = batchSize / n + (r < batchSize % n ? 1 : 0);
+            MatrixF in = input.selectConsecutiveColumns(start, start + size - 1);
+            MatrixF ex = (expected == null) ? null : expected.selectConsecutiveColumns(start, start + size - 1);
+            int[] lb = (labels == null) ? null : Arrays.copyOfRange(labels, start, start + size);
+            Layer[] stack = replicas[r];
+            shards[r].size = size;
+            tasks.add(ForkJoinTask.adapt(() -> computeGradients(stack, in, ex, lb)));
+            start += size;
+        }
+        invokeAll(tasks);
+        reduce(n);
+        for (int p = 0; p < masters.length; ++p) {
+            masters[p].accumulate(parameters[0][p]);
+            parameters[0][p].zeroGradient();
+        }
+        reportMetrics(n, batchSize);
+        network.completeBatch(learningRate);
+        return network;
+    }
+
+    /**
+     * Trains the network with one batch using the learning rate from the
+     * network's learning rate schedule.
+     * 
+     * @param input    the inputs of the batch as column vectors
+     * @param expected the expected values of the batch as column vectors
+     * @return the trained network
+     * @throws IllegalStateException if the network has no learning rate schedule
+     */
+    public Network train(MatrixF input, MatrixF expected) {
+        return train(input, expected, network.getLearningRate());
+    }
+
+    /**
+     * Trains the network with one batch whose expected values are given as
+     * class indices using the learning rate from the network's learning rate
+     * schedule.
+     * 
+     * @param input  the inputs of the batch as column vectors
+     * @param labels the expected class index for each column of the batch
+     * @return the trained network
+     * @throws IllegalStateException if the network has no learning rate schedule
+     */
+    public Network train(MatrixF input, int[] labels) {
+        return train(input, labels, network.getLearningRate());
+    }
+
+    private static void computeGradients(Layer[] stack, MatrixF input, MatrixF expected, int[] labels) {
+        Loss loss = (Loss) stack[stack.length - 1];
+        if (labels != null) {
+            loss.setExpectedLabels(labels);
+        } else {
+            loss.setExpectedValues(expected);
+        }
+        for (Layer layer : stack) {
+            layer.setMode(NetworkMode.TRAIN);
+            input = layer.forward(input);
+        }
+        // input now holds the gradient of the loss function
+        for (int i = stack.length - 1; i >= 0; --i) {
+            Layer layer = stack[i];
+            if (layer instanceof Loss && !(layer instanceof SoftmaxCrossEntropyLoss)) {
+                // a Loss returns the gradient from its forward() method
+                continue;
+            }
+            input = layer.backward(input);
+        }
+    }
+
+    /**
+     * Pairwise tree reduction of the gradient sums of the first {@code n}
+     * replicas into replica 0. The pairs of each round are summed in parallel.
+     * All gradients except those of replica 0 are zero afterwards.
+     */
+    private void reduce(int n) {
+        for (int stride = 1; stride < n; stride *= 2) {
+            ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int r = 0; r + stride < n; r += 2 * stride) {
+                Parameter[] into = parameters[r];
+                Parameter[] from = parameters[r + stride];
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    for (int p = 0; p < into.length; ++p) {
+                        into[p].accumulate(from[p]);
+                        from[p].zeroGradient();
+                    }
+                }));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private void invokeAll(List<ForkJoinTask<?>> tasks) {
+        if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            pool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+        }
+    }
+
+    private void reportMetrics(int n, int batchSize) {
+        Layer last = network.layers.get(network.layers.size() - 1);
+        if (!(last instanceof AbstractLoss)) {
+            return;
+        }
+        AbstractLoss loss = (AbstractLoss) last;
+        if (loss.lossCallback != null) {
+            MatrixF losses = Matrices.createF(1, batchSize);
+            float[] all = losses.getArrayUnsafe();
+            for (int r = 0, off = 0; r < n; ++r) {
+                float[] part = shards[r].losses.getArrayUnsafe();
+                System.arraycopy(part, 0, all, off, part.length);
+                off += part.length;
+            }
+            loss.lossCallback.accept(losses);
+        }
+        if (loss.accuracyCallback != null) {
+            double accuracy = 0.0;
+            for (int r = 0; r < n; ++r) {
+                accuracy += shards[r].accuracy * shards[r].size;
+            }
+            loss.accuracyCallback.accept(accuracy / batchSize);
+        }
+    }
+
+    private static Layer replicate(Layer layer, Shard shard) {
+        if (layer instanceof HiddenRelu) {
+            return new HiddenRelu((HiddenRelu) layer);
+        } else if (layer instanceof HiddenGelu) {
+            return new HiddenGelu((HiddenGelu) layer);
+        } else if (layer instanceof FusedHidden) {
+            return new FusedHidden((FusedHidden) layer);
+        } else if (layer instanceof Hidden) {
+            return new Hidden((Hidden) layer);
+        } else if (layer instanceof Relu) {
+            return new Relu();
+        } else if (layer instanceof Gelu) {
+            return new Gelu();
+        } else if (layer instanceof Activation) {
+            return new Activation(((Activation) layer).fun, ((Activation) layer).deriv);
+        } else if (layer instanceof Dropout) {
+            return new Dropout((Dropout) layer);
+        } else if (layer instanceof Softmax) {
+            return new Softmax();
+        } else if (layer instanceof SoftmaxCrossEntropyLoss) {
+            return withShardCallbacks(new SoftmaxCrossEntropyLoss(), shard);
+        } else if (layer instanceof CrossEntropyLoss) {
+            return withShardCallbacks(new CrossEntropyLoss(), shard);
+        } else {
+            throw new IllegalArgumentException("can't replicate " + layer.getClass().getName());
+        }
+    }
+
+    private static Layer withShardCallbacks(AbstractLoss loss, Shard shard) {
+        // the losses and the accuracy of a shard are needed when the master
+        // callbacks get called, which have been registered on the Loss
+        loss.registerLossCallback(losses -> shard.losses = losses);
+        loss.registerAccuracyCallback(accuracy -> shard.accuracy = accuracy);
+        return loss;
+    }
+
+    private static final class Shard {
+        int size;
+        MatrixF losses;
+        double accuracy;
+    }
+}
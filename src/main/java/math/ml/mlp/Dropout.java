@@ -15,65 +15,187 @@
  */
 package math.ml.mlp;
 
-import java.util.BitSet;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinTask;
 
-import math.rng.XorShiftRot256StarStar;
 import net.jamu.matrix.MatrixF;
 
+/**
+ * Inverted dropout. In TRAIN mode each element is dropped with probability
+ * {@code dropoutRate} (rounded to a multiple of 2<sup>-16</sup>) and the
+ * remaining ones are scaled by {@code 1 / (1 - dropoutRate)}. The mask is drawn
+ * 64 elements at a time and only depends on the seed and the position of the
+ * element, so the sequential and the parallel mode produce the same mask.
+ */
 public class Dropout extends AbstractLayer {
 
+    // elements per parallel task, a multiple of 64
+    private static final int CHUNK_SIZE = 1 << 15;
+    // the dropout rate is represented as THRESHOLD_BITS binary digits
+    private static final int THRESHOLD_BITS = 16;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
     private final float dropoutRate;
     private final float scalingFactor;
-    private BitSet mask = new BitSet(0);
+    // dropoutRate * 2^16
+    private final int threshold;
+    private final boolean parallel;
+    // draws one seed per forward pass
+    private final SplittableRandom random;
+    // the seed of the mask of the last forward pass
+    private long seed;
+    // whether the next forward pass reuses the mask of the last one
+    private boolean replay;
+    // bit (col * rows + row) is set if that element has been dropped
+    private long[] mask = new long[0];
 
     public Dropout(float dropoutRate) {
+        this(dropoutRate, new SplittableRandom(), false);
+    }
+
+    /**
+     * Creates a dropout layer whose sequence of masks is determined by
+     * {@code seed}.
+     * 
+     * @param dropoutRate the probability that an element is dropped
+     * @param seed        the seed of the random number generator
+     */
+    public Dropout(float dropoutRate, long seed) {
+        this(dropoutRate, new SplittableRandom(seed), false);
+    }
+
+    /**
+     * Creates a dropout layer whose sequence of masks is determined by
+     * {@code seed} and which optionally processes large inputs in parallel
+     * chunks on the {@link java.util.concurrent.ForkJoinPool#commonPool() common
+     * pool}.
+     * 
+     * @param dropoutRate the probability that an element is dropped
+     * @param seed        the seed of the random number generator
+     * @param parallel    whether to process large inputs in parallel
+     */
+    public Dropout(float dropoutRate, long seed, boolean parallel) {
+        this(dropoutRate, new SplittableRandom(seed), parallel);
+    }
+
+    /**
+     * Creates a replica with the same dropout rate whose random number generator
+     * has been split off from the generator of {@code master}.
+     */
+    Dropout(Dropout master) {
+        this(master.dropoutRate, master.random.split(), master.parallel);
+    }
+
+    private Dropout(float dropoutRate, SplittableRandom random, boolean parallel) {
         this.dropoutRate = dropoutRate;
-        this.scalingFactor = 1.0f / (1.0f - dropoutRate);
+        this.threshold = Math.max(0, Math.min(1 << THRESHOLD_BITS, Math.round(dropoutRate * (1 << THRESHOLD_BITS))));
+        this.scalingFactor = (float) (1 << THRESHOLD_BITS) / ((1 << THRESHOLD_BITS) - threshold);
+        this.random = random;
+        this.parallel = parallel;
     }
 
     // input: j x m
     @Override
     public MatrixF forward(MatrixF input) {
-        if (mode == NetworkMode.INFER || dropoutRate <= 0.0f) {
+        if (mode == NetworkMode.INFER || threshold == 0) {
             return input;
         }
         int inputSize = input.numRows() * input.numColumns();
-        if (mask.size() != inputSize) {
-            mask = new BitSet(inputSize);
-        } else {
-            mask.clear();
+        int words = (inputSize + 63) >>> 6;
+        if (replay && mask.length == words) {
+            replay = false;
+            apply(input.getArrayUnsafe(), inputSize, false);
+            return input;
         }
-        for (int col = 0; col < input.numColumns(); ++col) {
-            for (int row = 0; row < input.numRows(); ++row) {
-                if (dropout()) {
-                    mask.set(col * row);
-                    input.setUnsafe(row, col, 0.0f);
-                } else {
-                    input.setUnsafe(row, col, scalingFactor * input.getUnsafe(row, col));
-                }
-            }
+        if (mask.length != words) {
+            mask = new long[words];
         }
+        seed = random.nextLong();
+        apply(input.getArrayUnsafe(), inputSize, true);
         return input;
     }
 
+    /**
+     * Lets the next forward pass apply the same mask as the last one instead of
+     * drawing a new one. Activation checkpointing uses this to recompute a
+     * forward pass exactly.
+     */
+    void replayNextForward() {
+        replay = true;
+    }
+
     @Override
-    public MatrixF backward(MatrixF grads, float unused) {
+    public MatrixF backward(MatrixF grads) {
         if (mode == NetworkMode.INFER) {
             return null;
         }
-        for (int col = 0; col < grads.numColumns(); ++col) {
-            for (int row = 0; row < grads.numRows(); ++row) {
-                if (mask.get(row * col)) {
-                    grads.setUnsafe(row, col, 0.0f);
-                } else {
-                    grads.setUnsafe(row, col, scalingFactor * grads.getUnsafe(row, col));
-                }
-            }
+        if (threshold == 0) {
+            return grads;
         }
+        apply(grads.getArrayUnsafe(), grads.numRows() * grads.numColumns(), false);
         return grads;
     }
 
-    private boolean dropout() {
-        return XorShiftRot256StarStar.getDefault().nextFloat() < dropoutRate;
+    public float getDropoutRate() {
+        return dropoutRate;
+    }
+
+    @Override
+    public InferenceLayer freeze() {
+        // dropout is a no-op during inference
+        return input -> input;
+    }
+
+    private void apply(float[] x, int length, boolean drawMask) {
+        if (!parallel || length <= CHUNK_SIZE) {
+            apply(x, 0, length, drawMask);
+            return;
+        }
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        for (int from = 0; from < length; from += CHUNK_SIZE) {
+            int start = from;
+            int end = Math.min(length, from + CHUNK_SIZE);
+            tasks.add(ForkJoinTask.adapt(() -> apply(x, start, end, drawMask)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    private void apply(float[] x, int from, int to, boolean drawMask) {
+        if (drawMask) {
+            for (int word = from >>> 6; word < (to + 63) >>> 6; ++word) {
+                mask[word] = drawMaskWord(seed, word, threshold);
+            }
+        }
+        Kernels.get().dropout(x, mask, scalingFactor, from, to);
+    }
+
+    /**
+     * Returns 64 independent bits that are each set with probability
+     * {@code threshold / 2^16}. This is a bit-sliced comparison of 64 uniform
+     * 16-bit numbers with {@code threshold}: going from the least to the most
+     * significant binary digit of {@code threshold}, a set digit ORs in a random
+     * word and a cleared one ANDs it in, so the trailing zero digits need no
+     * draws at all. The random words are SplitMix64 outputs of a counter derived
+     * from {@code seed} and the index of the word.
+     */
+    static long drawMaskWord(long seed, int word, int threshold) {
+        if (threshold >= 1 << THRESHOLD_BITS) {
+            return -1L;
+        }
+        long counter = seed + (long) word * THRESHOLD_BITS * GOLDEN_GAMMA;
+        long bits = 0L;
+        for (int digit = Integer.numberOfTrailingZeros(threshold); digit < THRESHOLD_BITS; ++digit) {
+            long r = mix64(counter + digit * GOLDEN_GAMMA);
+            bits = ((threshold >>> digit) & 1) != 0 ? bits | r : bits & r;
+        }
+        return bits;
+    }
+
+    // the SplitMix64 finalizer as used by java.util.SplittableRandom
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * Continuous exponential decay: the learning rate gets multiplied by
+ * {@code decayRate} over the course of {@code decaySteps} steps.
+ */
+public class ExponentialDecay implements LearningRateSchedule {
+
+    private final float initial;
+    private final float decayRate;
+    private final long decaySteps;
+
+    public ExponentialDecay(float initial, float decayRate, long decaySteps) {
+        if (decaySteps <= 0L) {
+            throw new IllegalArgumentException("decaySteps: " + decaySteps);
+        }
+        this.initial = initial;
+        this.decayRate = decayRate;
+        this.decaySteps = decaySteps;
+    }
+
+    @Override
+    public float getLearningRate(long step) {
+        return (float) (initial * Math.pow(decayRate, (double) step / decaySteps));
+    }
+}
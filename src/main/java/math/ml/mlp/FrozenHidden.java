@@ -0,0 +1,70 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import net.jamu.matrix.FFunction;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Immutable snapshot of a {@link Hidden} layer, optionally fused with its
+ * activation function (see {@link FusedHidden}).
+ */
+final class FrozenHidden implements InferenceLayer {
+
+    // j x i
+    private final MatrixF weights;
+    // j x 1
+    private final MatrixF biases;
+    private final String name;
+    // null if there is no activation
+    private final FFunction activation;
+
+    FrozenHidden(MatrixF weights, MatrixF biases, String name) {
+        this(weights, biases, name, null);
+    }
+
+    FrozenHidden(MatrixF weights, MatrixF biases, String name, FFunction activation) {
+        this.weights = weights;
+        this.biases = biases;
+        this.name = name;
+        this.activation = activation;
+    }
+
+    @Override
+    public MatrixF infer(MatrixF input) {
+        if (activation != null) {
+            return FusedHidden.addBiasAndActivate(weights.times(input), biases, activation);
+        }
+        // (j x i) * (i x m) + (j x m) = (j x m)
+        return weights.times(input).addBroadcastedVectorInplace(biases);
+    }
+
+    MatrixF getWeights() {
+        return weights;
+    }
+
+    MatrixF getBiases() {
+        return biases;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    FFunction getActivation() {
+        return activation;
+    }
+}
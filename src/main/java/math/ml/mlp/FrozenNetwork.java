@@ -0,0 +1,53 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.List;
+
+import net.jamu.matrix.MatrixF;
+
+/**
+ * An immutable, inference-only {@link Network}, usually produced by
+ * {@link AbstractNetwork#freeze()} from a trained network. A
+ * {@code FrozenNetwork} never touches the disk and its layers don't keep any
+ * per-call state, so a single instance can be shared by all threads.
+ */
+public final class FrozenNetwork implements Network {
+
+    private final List<InferenceLayer> layers;
+
+    public FrozenNetwork(List<InferenceLayer> layers) {
+        this.layers = List.copyOf(layers);
+    }
+
+    @Override
+    public MatrixF infer(MatrixF input) {
+        for (InferenceLayer layer : layers) {
+            input = layer.infer(input);
+        }
+        // this is the prediction of the last layer
+        return input;
+    }
+
+    /**
+     * Returns the (unmodifiable) list of layers of this network.
+     * 
+     * @return the layers of this network
+     */
+    public List<InferenceLayer> getLayers() {
+        return layers;
+    }
+}
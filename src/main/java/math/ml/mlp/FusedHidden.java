@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import net.jamu.matrix.FFunction;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A {@link Hidden} layer fused with the subsequent {@link Activation}. The bias
+ * and the activation function get applied in place to the output of the matrix
+ * multiplication, which in TRAIN mode also keeps what the backward pass needs
+ * to multiply the derivative of the activation function into the incoming
+ * gradients in place. This is equivalent to, but touches the memory less often
+ * than, a {@code Hidden} layer followed by an {@code Activation} layer.
+ * <p>
+ * For an arbitrary activation function the derivative of each element gets
+ * evaluated in the same pass as the function and kept. Subclasses for specific
+ * activations (see {@link HiddenRelu} and {@link HiddenGelu}) override
+ * {@link #activate(MatrixF, MatrixF)} and {@link #multiplyDerivative(float[], int)}
+ * to use the {@link Kernels} and a more compact state instead.
+ */
+public class FusedHidden extends Hidden {
+
+    protected final FFunction fun;
+    protected final FFunction deriv;
+    // j x m, the derivative at the pre-activations, reused in TRAIN mode (only
+    // used by the default activate / multiplyDerivative)
+    private MatrixF derivatives;
+    // j x m, reused in TRAIN mode
+    private MatrixF output;
+
+    public FusedHidden(int in, int out, String name, FFunction fun, FFunction deriv) {
+        this(in, out, name, false, false, fun, deriv);
+    }
+
+    public FusedHidden(int in, int out, String name, boolean loadWeightsAndBiases, boolean storeWeightsAndBiases,
+            FFunction fun, FFunction deriv) {
+        super(in, out, name, loadWeightsAndBiases, storeWeightsAndBiases);
+        this.fun = fun;
+        this.deriv = deriv;
+    }
+
+    /**
+     * Creates a replica that shares the weights and biases of {@code master} but
+     * has its own input and gradient state.
+     */
+    FusedHidden(FusedHidden master) {
+        super(master);
+        this.fun = master.fun;
+        this.deriv = master.deriv;
+    }
+
+    @Override
+    public MatrixF forward(MatrixF input) {
+        if (mode == NetworkMode.INFER) {
+            return addBiasAndActivate(weights.times(input), biases, fun);
+        }
+        // i x m
+        this.input = input;
+        output = reuse(output, weights.numRows(), input.numColumns());
+        // (j x i) * (i x m) = (j x m)
+        weights.mult(input, output);
+        activate(output, biases);
+        return output;
+    }
+
+    // outputGrads : j x m
+    @Override
+    public MatrixF backward(MatrixF outputGrads) {
+        if (mode == NetworkMode.INFER) {
+            return null;
+        }
+        // (j x m) o (j x m), computed in place
+        float[] grads = outputGrads.getArrayUnsafe();
+        multiplyDerivative(grads, grads.length);
+        return super.backward(outputGrads);
+    }
+
+    /**
+     * Adds {@code biases} to each column of the pre-activations {@code z} and
+     * applies the activation function in place (TRAIN mode only). Keeps what
+     * {@link #multiplyDerivative(float[], int)} needs, by default the derivative
+     * of each element, which gets evaluated in the same pass.
+     * 
+     * @param z      the j x m result of the matrix multiplication, gets overwritten
+     * @param biases the j x 1 biases
+     */
+    protected void activate(MatrixF z, MatrixF biases) {
+        int rows = z.numRows();
+        derivatives = reuse(derivatives, rows, z.numColumns());
+        float[] a = z.getArrayUnsafe();
+        float[] d = derivatives.getArrayUnsafe();
+        float[] b = biases.getArrayUnsafe();
+        for (int off = 0; off < a.length; off += rows) {
+            for (int row = 0; row < rows; ++row) {
+                float x = a[off + row] + b[row];
+                d[off + row] = deriv.apply(x);
+                a[off + row] = fun.apply(x);
+            }
+        }
+    }
+
+    /**
+     * Computes {@code grads[i] *= deriv(z[i])} for {@code 0 <= i < length} in
+     * place, where {@code z} are the pre-activations of the last
+     * {@link #activate(MatrixF, MatrixF)}.
+     */
+    protected void multiplyDerivative(float[] grads, int length) {
+        Kernels.get().multiply(grads, derivatives.getArrayUnsafe(), length);
+    }
+
+    @Override
+    public void releaseBuffers() {
+        super.releaseBuffers();
+        derivatives = null;
+        output = null;
+    }
+
+    @Override
+    public InferenceLayer freeze() {
+        return new FrozenHidden(weights.copy(), biases.copy(), name, fun);
+    }
+
+    @Override
+    public InferenceLayer freeze(Precision precision) {
+        if (precision == Precision.FLOAT32) {
+            return freeze();
+        }
+        return new HalfPrecisionHidden(weights, biases, name, precision, fun);
+    }
+
+    /**
+     * Adds {@code biases} to each column of {@code z} and applies {@code fun} in
+     * the same pass.
+     * 
+     * @param z      the j x m result of the matrix multiplication, gets overwritten
+     * @param biases the j x 1 biases
+     * @param fun    the activation function
+     * @return {@code z}
+     */
+    static MatrixF addBiasAndActivate(MatrixF z, MatrixF biases, FFunction fun) {
+        float[] a = z.getArrayUnsafe();
+        float[] b = biases.getArrayUnsafe();
+        int rows = z.numRows();
+        for (int off = 0; off < a.length; off += rows) {
+            for (int row = 0; row < rows; ++row) {
+                a[off + row] = fun.apply(a[off + row] + b[row]);
+            }
+        }
+        return z;
+    }
+}
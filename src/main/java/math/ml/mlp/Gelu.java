@@ -16,10 +16,78 @@
 package math.ml.mlp;
 
 import math.dl.GELU;
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
 
+/**
+ * GELU activation (tanh approximation). In TRAIN mode the forward pass computes
+ * the derivative together with the function value, as both share the same tanh
+ * term, and keeps it (instead of the input) for the backward pass, which then
+ * only has to multiply it into the incoming gradients in place.
+ */
 public class Gelu extends Activation {
 
+    // j x m, reused in TRAIN mode
+    private MatrixF output;
+    // j x m, gelu'(input), reused in TRAIN mode
+    private MatrixF derivative;
+
     public Gelu() {
         super(GELU::geluF, GELU::dgeluF_dx);
     }
+
+    @Override
+    public MatrixF forward(MatrixF input) {
+        if (mode == NetworkMode.INFER) {
+            return super.forward(input);
+        }
+        // j x m
+        output = reuse(output, input.numRows(), input.numColumns());
+        derivative = reuse(derivative, input.numRows(), input.numColumns());
+        float[] in = input.getArrayUnsafe();
+        Kernels.get().gelu(in, output.getArrayUnsafe(), derivative.getArrayUnsafe(), in.length);
+        return output;
+    }
+
+    // outputGrads : j x m
+    @Override
+    public MatrixF backward(MatrixF outputGrads) {
+        if (mode == NetworkMode.INFER) {
+            return null;
+        }
+        // (j x m) o (j x m), computed in place
+        float[] grads = outputGrads.getArrayUnsafe();
+        Kernels.get().multiply(grads, derivative.getArrayUnsafe(), grads.length);
+        return outputGrads;
+    }
+
+    @Override
+    public void releaseBuffers() {
+        super.releaseBuffers();
+        output = null;
+        derivative = null;
+    }
+
+    @Override
+    public InferenceLayer freeze() {
+        return Gelu::gelu;
+    }
+
+    @Override
+    protected void activate(float[] in, float[] out, int length) {
+        Kernels.get().gelu(in, out, length);
+    }
+
+    /**
+     * Computes the GELU of {@code input} into a new matrix.
+     * 
+     * @param input the input matrix
+     * @return a new matrix holding the GELU of each element of {@code input}
+     */
+    static MatrixF gelu(MatrixF input) {
+        MatrixF output = Matrices.sameDimF(input);
+        float[] in = input.getArrayUnsafe();
+        Kernels.get().gelu(in, output.getArrayUnsafe(), in.length);
+        return output;
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import net.jamu.matrix.FFunction;
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Immutable snapshot of a {@link Hidden} layer (optionally fused with its
+ * activation function) whose weights are stored in a 16-bit
+ * {@link Precision}. The weights get decoded block by block into floats and
+ * all accumulation is done in float. Biases are kept as floats.
+ */
+final class HalfPrecisionHidden implements InferenceLayer {
+
+    // number of weight rows that get decoded together
+    private static final int ROW_BLOCK = 16;
+
+    // j x i, row-major
+    private final short[] weights;
+    // j x 1
+    private final float[] biases;
+    private final int rows;
+    private final int cols;
+    private final String name;
+    private final Precision precision;
+    // null if there is no activation
+    private final FFunction activation;
+
+    HalfPrecisionHidden(MatrixF weights, MatrixF biases, String name, Precision precision, FFunction activation) {
+        if (precision == Precision.FLOAT32) {
+            throw new IllegalArgumentException("not a 16-bit precision: " + precision);
+        }
+        this.rows = weights.numRows();
+        this.cols = weights.numColumns();
+        this.weights = new short[rows * cols];
+        for (int row = 0; row < rows; ++row) {
+            for (int col = 0; col < cols; ++col) {
+                this.weights[row * cols + col] = precision.encode(weights.getUnsafe(row, col));
+            }
+        }
+        this.biases = biases.getArrayUnsafe().clone();
+        this.name = name;
+        this.precision = precision;
+        this.activation = activation;
+    }
+
+    @Override
+    public MatrixF infer(MatrixF input) {
+        int batchSize = input.numColumns();
+        // (j x i) * (i x m) + (j x m) = (j x m)
+        MatrixF output = Matrices.createF(rows, batchSize);
+        float[] x = input.getArrayUnsafe();
+        float[] y = output.getArrayUnsafe();
+        float[] block = new float[ROW_BLOCK * cols];
+        for (int firstRow = 0; firstRow < rows; firstRow += ROW_BLOCK) {
+            int blockRows = Math.min(ROW_BLOCK, rows - firstRow);
+            decode(firstRow * cols, block, blockRows * cols);
+            for (int col = 0; col < batchSize; ++col) {
+                int xOff = col * cols;
+                int yOff = col * rows + firstRow;
+                int r = 0;
+                // 4 rows at a time so that each input element gets loaded only once
+                for (; r + 4 <= blockRows; r += 4) {
+                    int w0 = r * cols;
+                    int w1 = w0 + cols;
+                    int w2 = w1 + cols;
+                    int w3 = w2 + cols;
+                    float s0 = 0.0f;
+                    float s1 = 0.0f;
+                    float s2 = 0.0f;
+                    float s3 = 0.0f;
+                    for (int k = 0; k < cols; ++k) {
+                        float xk = x[xOff + k];
+                        s0 += block[w0 + k] * xk;
+                        s1 += block[w1 + k] * xk;
+                        s2 += block[w2 + k] * xk;
+                        s3 += block[w3 + k] * xk;
+                    }
+                    y[yOff + r] = activate(s0 + biases[firstRow + r]);
+                    y[yOff + r + 1] = activate(s1 + biases[firstRow + r + 1]);
+                    y[yOff + r + 2] = activate(s2 + biases[firstRow + r + 2]);
+                    y[yOff + r + 3] = activate(s3 + biases[firstRow + r + 3]);
+                }
+                for (; r < blockRows; ++r) {
+                    int wOff = r * cols;
+                    float sum = 0.0f;
+                    for (int k = 0; k < cols; ++k) {
+                        sum += block[wOff + k] * x[xOff + k];
+                    }
+                    y[yOff + r] = activate(sum + biases[firstRow + r]);
+                }
+            }
+        }
+        return output;
+    }
+
+    private float activate(float x) {
+        return (activation == null) ? x : activation.apply(x);
+    }
+
+    private void decode(int from, float[] dst, int length) {
+        short[] w = weights;
+        if (precision == Precision.BFLOAT16) {
+            for (int i = 0; i < length; ++i) {
+                dst[i] = Precision.fromBFloat16(w[from + i]);
+            }
+        } else {
+            for (int i = 0; i < length; ++i) {
+                dst[i] = Precision.fromFloat16(w[from + i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes occupied by the stored weights.
+     */
+    long getWeightBytes() {
+        return (long) Short.BYTES * weights.length;
+    }
+
+    Precision getPrecision() {
+        return precision;
+    }
+
+    String getName() {
+        return name;
+    }
+}
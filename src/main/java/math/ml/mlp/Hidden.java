@@ -19,6 +19,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.List;
 
 import net.jamu.matrix.Matrices;
 import net.jamu.matrix.MatrixF;
@@ -31,6 +32,13 @@ public class Hidden extends AbstractLayer {
     protected final MatrixF biases;
     protected final String name;
     protected final boolean storeWeightsAndBiases;
+    protected final Parameter weightsParam;
+    protected final Parameter biasesParam;
+    private final List<Parameter> parameters;
+    // j x m, reused in TRAIN mode
+    private MatrixF output;
+    // i x m, reused in TRAIN mode
+    private MatrixF inputGrads;
 
     public Hidden(int in, int out, String name) {
         this(in, out, name, false, false);
@@ -50,30 +58,92 @@ public class Hidden extends AbstractLayer {
             weights = Matrices.randomUniformF(j, i, -bound, bound);
             biases = Matrices.createF(j, 1);
         }
+        weightsParam = new Parameter("w_" + name, weights);
+        biasesParam = new Parameter("b_" + name, biases, false);
+        parameters = List.of(weightsParam, biasesParam);
+    }
+
+    /**
+     * Creates a replica that shares the weights and biases of {@code master} but
+     * has its own input and gradient state.
+     */
+    Hidden(Hidden master) {
+        this.name = master.name;
+        this.storeWeightsAndBiases = false;
+        this.weights = master.weights;
+        this.biases = master.biases;
+        this.weightsParam = new Parameter(master.weightsParam.getName(), weights);
+        this.biasesParam = new Parameter(master.biasesParam.getName(), biases, false);
+        this.parameters = List.of(weightsParam, biasesParam);
     }
 
     @Override
     public MatrixF forward(MatrixF input) {
         super.forward(input);
+        if (mode == NetworkMode.TRAIN) {
+            output = reuse(output, weights.numRows(), input.numColumns());
+            // (j x i) * (i x m) + (j x m) = (j x m)
+            return weights.mult(input, output).addBroadcastedVectorInplace(biases);
+        }
         // (j x i) * (i x m) + (j x m) = (j x m)
         return weights.times(input).addBroadcastedVectorInplace(biases);
     }
 
     // outputGrads : j x m
     @Override
-    public MatrixF backward(MatrixF outputGrads, float learningRate) {
+    public MatrixF backward(MatrixF outputGrads) {
         if (mode == NetworkMode.INFER) {
             return null;
         }
+        inputGrads = reuse(inputGrads, weights.numColumns(), outputGrads.numColumns());
         // (i x j) * (j x m) = (i x m)
-        MatrixF inputErrJacobian = weights.transposedTimes(outputGrads);
-        MatrixF avgWeightsGrad = outputGrads.timesTransposed(input).scaleInplace(1.0f / outputGrads.numColumns());
+        weights.transAmult(outputGrads, inputGrads);
+        // (j x m) * (m x i) + (j x i) = (j x i)
+        outputGrads.transBmultAdd(input, weightsParam.getGradient());
         input = null;
-        // j x 1
-        MatrixF avgBiasesGrad = Matrices.colsAverage(outputGrads);
-        weights.addInplace(-learningRate, avgWeightsGrad);
-        biases.addInplace(-learningRate, avgBiasesGrad);
-        return inputErrJacobian;
+        // j x 1 (sum of the columns of outputGrads)
+        float[] grads = outputGrads.getArrayUnsafe();
+        float[] biasesGrad = biasesParam.getGradient().getArrayUnsafe();
+        int rows = outputGrads.numRows();
+        for (int off = 0; off < grads.length; off += rows) {
+            for (int row = 0; row < rows; ++row) {
+                biasesGrad[row] += grads[off + row];
+            }
+        }
+        weightsParam.addSamples(outputGrads.numColumns());
+        biasesParam.addSamples(outputGrads.numColumns());
+        return inputGrads;
+    }
+
+    @Override
+    public void releaseBuffers() {
+        super.releaseBuffers();
+        output = null;
+        inputGrads = null;
+    }
+
+    @Override
+    public List<Parameter> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public InferenceLayer freeze() {
+        return new FrozenHidden(weights.copy(), biases.copy(), name);
+    }
+
+    /**
+     * Returns an immutable snapshot of this layer that stores its weights in the
+     * given {@link Precision}.
+     * 
+     * @param precision the precision of the stored weights
+     * @return a frozen copy of this layer
+     */
+    public InferenceLayer freeze(Precision precision) {
+        if (precision == Precision.FLOAT32) {
+            return freeze();
+        }
+        return new HalfPrecisionHidden(weights, biases, name, precision, null);
     }
 
     private MatrixF loadWeights() {
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import math.dl.GELU;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A {@link Hidden} layer fused with a {@link Gelu} activation. Like
+ * {@code Gelu}, it computes the derivative together with the function value
+ * from the same tanh term.
+ */
+public class HiddenGelu extends FusedHidden {
+
+    // j x m, gelu'(z), reused in TRAIN mode
+    private MatrixF derivative;
+
+    public HiddenGelu(int in, int out, String name) {
+        this(in, out, name, false, false);
+    }
+
+    public HiddenGelu(int in, int out, String name, boolean loadWeightsAndBiases, boolean storeWeightsAndBiases) {
+        super(in, out, name, loadWeightsAndBiases, storeWeightsAndBiases, GELU::geluF, GELU::dgeluF_dx);
+    }
+
+    /**
+     * Creates a replica that shares the weights and biases of {@code master} but
+     * has its own input and gradient state.
+     */
+    HiddenGelu(HiddenGelu master) {
+        super(master);
+    }
+
+    @Override
+    protected void activate(MatrixF z, MatrixF biases) {
+        int rows = z.numRows();
+        derivative = reuse(derivative, rows, z.numColumns());
+        float[] a = z.getArrayUnsafe();
+        float[] b = biases.getArrayUnsafe();
+        float[] d = derivative.getArrayUnsafe();
+        Kernels kernels = Kernels.get();
+        // bias and activation in one pass over each column
+        for (int off = 0; off < a.length; off += rows) {
+            kernels.gelu(a, b, a, d, off, rows);
+        }
+    }
+
+    @Override
+    protected void multiplyDerivative(float[] grads, int length) {
+        Kernels.get().multiply(grads, derivative.getArrayUnsafe(), length);
+    }
+
+    @Override
+    public void releaseBuffers() {
+        super.releaseBuffers();
+        derivative = null;
+    }
+}
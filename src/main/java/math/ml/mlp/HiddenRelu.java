@@ -0,0 +1,74 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import math.dl.RELU;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A {@link Hidden} layer fused with a {@link Relu} activation. Like
+ * {@code Relu}, it keeps only a bitmask of the elements whose derivative is
+ * {@code 0} for the backward pass.
+ */
+public class HiddenRelu extends FusedHidden {
+
+    // bit (col * rows + row) is set if relu'(z) == 0 for that element
+    private long[] inactive = new long[0];
+
+    public HiddenRelu(int in, int out, String name) {
+        this(in, out, name, false, false);
+    }
+
+    public HiddenRelu(int in, int out, String name, boolean loadWeightsAndBiases, boolean storeWeightsAndBiases) {
+        super(in, out, name, loadWeightsAndBiases, storeWeightsAndBiases, RELU::reluF, RELU::dreluF_dx);
+    }
+
+    /**
+     * Creates a replica that shares the weights and biases of {@code master} but
+     * has its own input and gradient state.
+     */
+    HiddenRelu(HiddenRelu master) {
+        super(master);
+    }
+
+    @Override
+    protected void activate(MatrixF z, MatrixF biases) {
+        float[] a = z.getArrayUnsafe();
+        float[] b = biases.getArrayUnsafe();
+        int rows = z.numRows();
+        int words = (a.length + 63) >>> 6;
+        if (inactive.length != words) {
+            inactive = new long[words];
+        }
+        Kernels kernels = Kernels.get();
+        // bias and activation in one pass over each column
+        for (int off = 0; off < a.length; off += rows) {
+            kernels.relu(a, b, a, inactive, off, rows);
+        }
+    }
+
+    @Override
+    protected void multiplyDerivative(float[] grads, int length) {
+        // zeroes the gradients of the inactive elements
+        Kernels.get().dropout(grads, inactive, 1.0f, 0, length);
+    }
+
+    @Override
+    public void releaseBuffers() {
+        super.releaseBuffers();
+        inactive = new long[0];
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A layer of a {@link FrozenNetwork}. Implementations must not keep any
+ * per-call state and must never modify their parameters, so that a single
+ * instance can be shared by an arbitrary number of concurrently inferring
+ * threads.
+ */
+public interface InferenceLayer {
+
+    /**
+     * Forward pass for inference.
+     * 
+     * @param input the forward input into this layer
+     * @return the forward output of this layer
+     */
+    MatrixF infer(MatrixF input);
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A non-blocking facade for concurrent inference on a shared
+ * {@link FrozenNetwork}. Each {@link #inferAsync(MatrixF)} call runs on an
+ * {@link ExecutorService}, by default one that starts a virtual thread per
+ * task when the JVM supports virtual threads (Java 21+) and a pool of one
+ * platform thread per CPU otherwise. Optionally, single-column requests get
+ * coalesced into batches by a {@link MicroBatchingExecutor}.
+ */
+public final class InferenceService implements AutoCloseable {
+
+    private final FrozenNetwork network;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final MicroBatchingExecutor batcher;
+
+    /**
+     * Creates a service on a new default executor (see the class comment).
+     * 
+     * @param network the network to use
+     */
+    public InferenceService(FrozenNetwork network) {
+        this(network, newDefaultExecutor(), true, null);
+    }
+
+    /**
+     * Creates a service on the given executor. The executor doesn't get shut
+     * down by {@link #close()}.
+     * 
+     * @param network  the network to use
+     * @param executor the executor that runs the inference calls
+     */
+    public InferenceService(FrozenNetwork network, ExecutorService executor) {
+        this(network, executor, false, null);
+    }
+
+    /**
+     * Creates a service on a new default executor which passes single-column
+     * inputs on to {@code batcher}. The batcher should use the same network and
+     * gets closed by {@link #close()}.
+     * 
+     * @param network the network to use for inputs with more than one column
+     * @param batcher the executor that batches single-column inputs
+     */
+    public InferenceService(FrozenNetwork network, MicroBatchingExecutor batcher) {
+        this(network, newDefaultExecutor(), true, batcher);
+    }
+
+    private InferenceService(FrozenNetwork network, ExecutorService executor, boolean ownsExecutor,
+            MicroBatchingExecutor batcher) {
+        this.network = network;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.batcher = batcher;
+    }
+
+    /**
+     * Runs the inference for {@code input} asynchronously.
+     * 
+     * @param input the input column vectors (mustn't be modified until the
+     *              returned future is complete)
+     * @return a future that gets completed with the prediction
+     */
+    public CompletableFuture<MatrixF> inferAsync(MatrixF input) {
+        if (batcher != null && input.numColumns() == 1) {
+            return batcher.submit(input);
+        }
+        return CompletableFuture.supplyAsync(() -> network.infer(input), executor);
+    }
+
+    /**
+     * Returns the network this service uses.
+     * 
+     * @return the network
+     */
+    public FrozenNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Shuts down the executor (unless it has been passed in by the caller) and
+     * closes the micro-batching executor (if any).
+     */
+    @Override
+    public void close() {
+        if (batcher != null) {
+            batcher.close();
+        }
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns whether this JVM supports virtual threads.
+     * 
+     * @return {@code true} if {@link #newVirtualThreadExecutor()} can be used
+     */
+    public static boolean isVirtualThreadAvailable() {
+        try {
+            newVirtualThreadExecutor().shutdown();
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task. This
+     * is {@code Executors.newVirtualThreadPerTaskExecutor()}, looked up
+     * reflectively so that this class also works on Java versions without
+     * virtual threads.
+     * 
+     * @return a new virtual-thread-per-task executor
+     * @throws UnsupportedOperationException if this JVM doesn't support virtual
+     *                                       threads
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new UnsupportedOperationException("virtual threads are not available", e);
+        } catch (InvocationTargetException e) {
+            // Java 19 / 20 without --enable-preview
+            throw new UnsupportedOperationException("virtual threads are not available", e.getCause());
+        }
+    }
+
+    private static ExecutorService newDefaultExecutor() {
+        try {
+            return newVirtualThreadExecutor();
+        } catch (UnsupportedOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "inference-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
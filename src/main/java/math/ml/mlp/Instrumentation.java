@@ -0,0 +1,181 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Records the per-layer statistics for {@link AbstractNetwork} and emits a
+ * {@link LayerEvent} for each pass if that event is enabled in a running JFR
+ * recording. Recording is thread-safe so that {@link #getMetrics(List)} can be
+ * called from a monitoring thread.
+ */
+final class Instrumentation {
+
+    private static final com.sun.management.ThreadMXBean THREADS = threadMXBean();
+    // never committed, only asked whether a recording has the event enabled
+    private static final LayerEvent PROBE = new LayerEvent();
+
+    // per layer: forwardCount, forwardNanos, backwardCount, backwardNanos,
+    // samples, flops, allocatedBytes
+    private static final int FIELDS = 7;
+    private long[] counters = new long[0];
+
+    MatrixF forward(int index, Layer layer, MatrixF input) {
+        LayerEvent event = newEvent();
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        MatrixF output = layer.forward(input);
+        long nanos = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (event != null) {
+            event.end();
+        }
+        int samples = input.numColumns();
+        long flops = estimateFlops(layer, input, false);
+        record(index, false, nanos, samples, flops, bytes);
+        if (event != null) {
+            commit(event, index, layer, false, samples, flops, bytes);
+        }
+        return output;
+    }
+
+    MatrixF backward(int index, Layer layer, MatrixF grads) {
+        LayerEvent event = newEvent();
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        MatrixF inputGrads = layer.backward(grads);
+        long nanos = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        if (event != null) {
+            event.end();
+        }
+        int samples = grads.numColumns();
+        long flops = estimateFlops(layer, grads, true);
+        record(index, true, nanos, samples, flops, bytes);
+        if (event != null) {
+            commit(event, index, layer, true, samples, flops, bytes);
+        }
+        return inputGrads;
+    }
+
+    synchronized List<LayerMetrics> getMetrics(List<Layer> layers) {
+        int count = Math.min(layers.size(), counters.length / FIELDS);
+        ArrayList<LayerMetrics> metrics = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            int off = i * FIELDS;
+            metrics.add(new LayerMetrics(i, getName(layers.get(i)), counters[off], counters[off + 1],
+                    counters[off + 2], counters[off + 3], counters[off + 4], counters[off + 5],
+                    counters[off + 6]));
+        }
+        return metrics;
+    }
+
+    synchronized void reset() {
+        Arrays.fill(counters, 0L);
+    }
+
+    private synchronized void record(int index, boolean backward, long nanos, int samples, long flops,
+            long bytes) {
+        int off = index * FIELDS;
+        if (off >= counters.length) {
+            counters = Arrays.copyOf(counters, off + FIELDS);
+        }
+        if (backward) {
+            counters[off + 2] += 1L;
+            counters[off + 3] += nanos;
+        } else {
+            counters[off] += 1L;
+            counters[off + 1] += nanos;
+            counters[off + 4] += samples;
+        }
+        counters[off + 5] += flops;
+        counters[off + 6] += bytes;
+    }
+
+    // null if no recording has the event enabled, so that nothing gets allocated
+    // per pass in that case
+    private static LayerEvent newEvent() {
+        if (!PROBE.isEnabled()) {
+            return null;
+        }
+        LayerEvent event = new LayerEvent();
+        event.begin();
+        return event;
+    }
+
+    private static void commit(LayerEvent event, int index, Layer layer, boolean backward, int samples,
+            long flops, long bytes) {
+        if (event.shouldCommit()) {
+            event.layerIndex = index;
+            event.layerName = getName(layer);
+            event.backward = backward;
+            event.samples = samples;
+            event.flops = flops;
+            event.allocatedBytes = bytes;
+            event.commit();
+        }
+    }
+
+    static String getName(Layer layer) {
+        if (layer instanceof Hidden) {
+            return ((Hidden) layer).name;
+        }
+        return layer.getClass().getSimpleName();
+    }
+
+    // input is the forward input (i x m) or the backward output gradient (j x m)
+    static long estimateFlops(Layer layer, MatrixF input, boolean backward) {
+        long elements = (long) input.numRows() * input.numColumns();
+        if (layer instanceof Hidden) {
+            MatrixF weights = ((Hidden) layer).weights;
+            long madds = (long) weights.numRows() * weights.numColumns() * input.numColumns();
+            long outputs = (long) weights.numRows() * input.numColumns();
+            // forward: W * x + b, backward: W^T * g, g * x^T and the bias sums
+            long flops = (backward ? 4L * madds : 2L * madds) + outputs;
+            if (layer instanceof FusedHidden) {
+                flops += outputs;
+            }
+            return flops;
+        }
+        return elements;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0L : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+                if (threads.isThreadAllocatedMemorySupported()) {
+                    threads.setThreadAllocatedMemoryEnabled(true);
+                    return threads;
+                }
+            }
+        } catch (UnsupportedOperationException | LinkageError e) {
+            // no allocation measurement on this JVM
+        }
+        return null;
+    }
+}
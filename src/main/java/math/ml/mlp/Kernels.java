@@ -0,0 +1,281 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * The element-wise and column-wise numerical kernels used by the layers and
+ * loss functions. There is a plain scalar implementation and, if the
+ * {@code jdk.incubator.vector} module is present (i.e., the JVM has been
+ * started with {@code --add-modules jdk.incubator.vector}), a SIMD
+ * implementation based on the JDK Vector API.
+ * <p>
+ * Which one is used by default can be chosen by setting the system property
+ * {@code math.ml.mlp.kernels} to {@code scalar} or {@code vector} (the default,
+ * {@code auto}, picks the SIMD kernels whenever they are available). If
+ * {@code vector} is requested but not available, or if the property has any
+ * other value, a warning gets logged and the scalar kernels are used. The
+ * kernels can also be changed at runtime via {@link #set(Kernels)}.
+ * <p>
+ * All arrays are the column-major backing arrays of {@code MatrixF}s.
+ */
+public abstract class Kernels {
+
+    private static final String PROPERTY = "math.ml.mlp.kernels";
+    private static final Kernels SCALAR = new ScalarKernels();
+    private static final Kernels VECTOR = loadVectorKernels();
+
+    private static volatile Kernels current = initial();
+
+    protected Kernels() {
+    }
+
+    /**
+     * Returns the kernels that are currently used by the layers.
+     * 
+     * @return the current kernels
+     */
+    public static Kernels get() {
+        return current;
+    }
+
+    /**
+     * Sets the kernels to be used by the layers from now on.
+     * 
+     * @param kernels the kernels to use
+     */
+    public static void set(Kernels kernels) {
+        if (kernels == null) {
+            throw new NullPointerException("kernels");
+        }
+        current = kernels;
+    }
+
+    /**
+     * Returns the scalar kernels which are always available.
+     * 
+     * @return the scalar kernels
+     */
+    public static Kernels scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Returns the SIMD kernels.
+     * 
+     * @return the SIMD kernels
+     * @throws UnsupportedOperationException if the {@code jdk.incubator.vector}
+     *                                       module isn't available
+     */
+    public static Kernels vector() {
+        if (VECTOR == null) {
+            throw new UnsupportedOperationException("jdk.incubator.vector is not available");
+        }
+        return VECTOR;
+    }
+
+    /**
+     * Returns whether the SIMD kernels are available in this JVM.
+     * 
+     * @return {@code true} if {@link #vector()} can be used
+     */
+    public static boolean isVectorAvailable() {
+        return VECTOR != null;
+    }
+
+    public abstract String getName();
+
+    /**
+     * {@code y[i] = relu(x[i])} for {@code 0 <= i < length}.
+     */
+    public abstract void relu(float[] x, float[] y, int length);
+
+    /**
+     * {@code grads[i] *= relu'(x[i])} for {@code 0 <= i < length}.
+     */
+    public abstract void reluBackward(float[] x, float[] grads, int length);
+
+    /**
+     * {@code y[i] = relu(x[i])} for {@code 0 <= i < length}, and bit {@code i}
+     * of {@code inactive} gets set if {@code relu'(x[i]) == 0} and cleared
+     * otherwise. Use {@link #dropout(float[], long[], float, int, int)} with a
+     * scale of {@code 1} for the backward pass. {@code y} may be {@code x}.
+     */
+    public abstract void relu(float[] x, float[] y, long[] inactive, int length);
+
+    /**
+     * {@code y[off + i] = relu(x[off + i] + bias[i])} for
+     * {@code 0 <= i < length}, i.e., bias and activation for one column in a
+     * single pass. Bit {@code off + i} of {@code inactive} gets set if the
+     * derivative at that element is {@code 0} and cleared otherwise, all other
+     * bits are left alone. {@code y} may be {@code x}.
+     */
+    public abstract void relu(float[] x, float[] bias, float[] y, long[] inactive, int off, int length);
+
+    /**
+     * {@code y[i] = gelu(x[i])} for {@code 0 <= i < length} (tanh
+     * approximation).
+     */
+    public abstract void gelu(float[] x, float[] y, int length);
+
+    /**
+     * {@code y[i] = gelu(x[i])} and {@code derivative[i] = gelu'(x[i])} for
+     * {@code 0 <= i < length}. Use {@link #multiply(float[], float[], int)} for
+     * the backward pass. {@code y} may be {@code x}.
+     */
+    public abstract void gelu(float[] x, float[] y, float[] derivative, int length);
+
+    /**
+     * {@code y[off + i] = gelu(x[off + i] + bias[i])} and
+     * {@code derivative[off + i] = gelu'(x[off + i] + bias[i])} for
+     * {@code 0 <= i < length}, i.e., bias and activation for one column in a
+     * single pass. {@code y} may be {@code x}.
+     */
+    public abstract void gelu(float[] x, float[] bias, float[] y, float[] derivative, int off, int length);
+
+    /**
+     * {@code grads[i] *= gelu'(x[i])} for {@code 0 <= i < length}.
+     */
+    public abstract void geluBackward(float[] x, float[] grads, int length);
+
+    /**
+     * Softmax of the {@code length} elements of {@code x} starting at
+     * {@code off} into the same positions of {@code y}.
+     */
+    public abstract void softmax(float[] x, float[] y, int off, int length);
+
+    /**
+     * Vector-Jacobian product of the softmax {@code s} of a single column with
+     * that column's gradients, computed in place:
+     * {@code grads = s o (grads - (s . grads))}.
+     */
+    public abstract void softmaxBackward(float[] s, float[] grads, int off, int length);
+
+    /**
+     * Returns the cross-entropy {@code -sum(expected[i] * log(pred[i]))} of a
+     * single column, where the sum runs over the {@code length} elements
+     * starting at {@code off}.
+     */
+    public abstract float crossEntropy(float[] expected, float[] pred, int off, int length);
+
+    /**
+     * {@code grads[i] = -expected[i] / pred[i]} (or {@code 0} where
+     * {@code expected[i] == 0}) for {@code 0 <= i < length}.
+     */
+    public abstract void crossEntropyGradient(float[] expected, float[] pred, float[] grads, int length);
+
+    /**
+     * {@code x[i] -= y[i]} for {@code 0 <= i < length}.
+     */
+    public abstract void subtract(float[] x, float[] y, int length);
+
+    /**
+     * {@code x[i] *= y[i]} for {@code 0 <= i < length}.
+     */
+    public abstract void multiply(float[] x, float[] y, int length);
+
+    /**
+     * Zeroes {@code x[i]} if bit {@code i} of {@code mask} is set and multiplies
+     * it by {@code scale} otherwise, for {@code from <= i < to}. {@code from}
+     * must be a multiple of 64.
+     */
+    public abstract void dropout(float[] x, long[] mask, float scale, int from, int to);
+
+    /**
+     * Fused softmax and cross-entropy of a single column: writes
+     * {@code softmax(x) - expected} into {@code grads} and returns the
+     * cross-entropy of {@code softmax(x)} and {@code expected}. Only the
+     * {@code length} elements starting at {@code off} are touched;
+     * {@code grads} may be {@code x}.
+     */
+    public float softmaxCrossEntropy(float[] x, float[] expected, float[] grads, int off, int length) {
+        softmax(x, grads, off, length);
+        float loss = crossEntropy(expected, grads, off, length);
+        for (int i = off, end = off + length; i < end; ++i) {
+            grads[i] -= expected[i];
+        }
+        return loss;
+    }
+
+    /**
+     * Like {@link #softmaxCrossEntropy(float[], float[], float[], int, int)}
+     * for a one-hot {@code expected} column whose only {@code 1} is at
+     * {@code off + label}.
+     */
+    public float softmaxCrossEntropy(float[] x, int label, float[] grads, int off, int length) {
+        softmax(x, grads, off, length);
+        float loss = -ScalarKernels.log(grads[off + label]);
+        grads[off + label] -= 1.0f;
+        return loss;
+    }
+
+    /**
+     * Returns the index (relative to {@code off}) of the first largest of the
+     * {@code length} elements of {@code x} starting at {@code off}.
+     */
+    public int argmax(float[] x, int off, int length) {
+        int max = off;
+        for (int i = off + 1, end = off + length; i < end; ++i) {
+            if (x[i] > x[max]) {
+                max = i;
+            }
+        }
+        return max - off;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    // must never throw as that would make this class unusable
+    private static Kernels initial() {
+        String kernels = System.getProperty(PROPERTY, "auto");
+        switch (kernels) {
+        case "auto":
+            return VECTOR != null ? VECTOR : SCALAR;
+        case "scalar":
+            return SCALAR;
+        case "vector":
+            if (VECTOR != null) {
+                return VECTOR;
+            }
+            warn(PROPERTY + "=vector but jdk.incubator.vector is not available"
+                    + " (--add-modules jdk.incubator.vector), using the scalar kernels");
+            return SCALAR;
+        default:
+            warn("invalid value " + PROPERTY + "=" + kernels
+                    + " (expected auto, scalar or vector), using the scalar kernels");
+            return SCALAR;
+        }
+    }
+
+    private static void warn(String message) {
+        System.getLogger(Kernels.class.getName()).log(System.Logger.Level.WARNING, message);
+    }
+
+    private static Kernels loadVectorKernels() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            // load reflectively so that nothing links against the incubator module
+            // when it isn't there
+            return (Kernels) Class.forName("math.ml.mlp.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
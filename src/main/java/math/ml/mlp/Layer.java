@@ -15,6 +15,8 @@
  */
 package math.ml.mlp;
 
+import java.util.List;
+
 import net.jamu.matrix.MatrixF;
 
 public interface Layer {
@@ -28,13 +30,42 @@ public interface Layer {
     MatrixF forward(MatrixF input);
 
     /**
-     * Backward pass.
+     * Backward pass. Adds the gradients of this layer's {@link Parameter}s (if
+     * any) to their gradient sums but doesn't update the parameters, that's the
+     * job of an {@link Optimizer}.
      * 
      * @param grads error gradients with respect to the output of this layer
-     * @param learningRate the learning rate ({@code 0 < r < 1})
      * @return error gradients with respect to the input of this layer
      */
-    MatrixF backward(MatrixF grads, float learningRate);
+    MatrixF backward(MatrixF grads);
 
     void setMode(NetworkMode mode);
+
+    /**
+     * Drops the references to the matrices that this layer keeps from the
+     * forward to the backward pass and from one batch to the next, so that they
+     * can be garbage collected. The next training step reallocates them. Used by
+     * {@link AbstractNetwork#setCheckpointSegmentLength(int) activation
+     * checkpointing}.
+     */
+    default void releaseBuffers() {
+    }
+
+    /**
+     * Returns the trainable parameters of this layer.
+     * 
+     * @return the parameters of this layer, possibly empty
+     */
+    default List<Parameter> getParameters() {
+        return List.of();
+    }
+
+    /**
+     * Returns an immutable snapshot of this layer that can be used for
+     * inference in a {@link FrozenNetwork}. Later changes to this layer are not
+     * reflected in the returned snapshot.
+     * 
+     * @return a frozen copy of this layer
+     */
+    InferenceLayer freeze();
 }
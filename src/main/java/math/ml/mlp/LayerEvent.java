@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a single forward or backward pass of a layer, emitted when
+ * instrumentation is enabled on an {@link AbstractNetwork}. The event is
+ * disabled by default; enable it with a JFR setting such as
+ * {@code math.ml.mlp.LayerPass#enabled=true} or a {@code .jfc} file.
+ */
+@Name("math.ml.mlp.LayerPass")
+@Label("Layer Pass")
+@Category({ "Machine Learning", "MLP" })
+@Description("Forward or backward pass of a single network layer")
+@StackTrace(false)
+@Enabled(false)
+final class LayerEvent extends Event {
+
+    @Label("Layer Index")
+    int layerIndex;
+
+    @Label("Layer")
+    String layerName;
+
+    @Label("Backward")
+    boolean backward;
+
+    @Label("Samples")
+    int samples;
+
+    @Label("FLOPs")
+    @Description("Estimated floating-point operations")
+    long flops;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+}
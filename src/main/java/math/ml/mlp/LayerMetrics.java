@@ -0,0 +1,152 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * An immutable snapshot of the timing and allocation statistics of a single
+ * layer of an {@link AbstractNetwork}, see
+ * {@link AbstractNetwork#setInstrumentationEnabled(boolean)}. The numbers are
+ * totals since instrumentation was enabled (or last reset).
+ */
+public final class LayerMetrics {
+
+    private final int layerIndex;
+    private final String layerName;
+    private final long forwardCount;
+    private final long forwardNanos;
+    private final long backwardCount;
+    private final long backwardNanos;
+    private final long samples;
+    private final long flops;
+    private final long allocatedBytes;
+
+    LayerMetrics(int layerIndex, String layerName, long forwardCount, long forwardNanos, long backwardCount,
+            long backwardNanos, long samples, long flops, long allocatedBytes) {
+        this.layerIndex = layerIndex;
+        this.layerName = layerName;
+        this.forwardCount = forwardCount;
+        this.forwardNanos = forwardNanos;
+        this.backwardCount = backwardCount;
+        this.backwardNanos = backwardNanos;
+        this.samples = samples;
+        this.flops = flops;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Returns the position of the layer in its network.
+     * 
+     * @return the index of the layer
+     */
+    public int getLayerIndex() {
+        return layerIndex;
+    }
+
+    /**
+     * Returns the name of a {@link Hidden} layer or the simple class name of any
+     * other layer.
+     * 
+     * @return the name of the layer
+     */
+    public String getLayerName() {
+        return layerName;
+    }
+
+    public long getForwardCount() {
+        return forwardCount;
+    }
+
+    public long getForwardNanos() {
+        return forwardNanos;
+    }
+
+    public long getBackwardCount() {
+        return backwardCount;
+    }
+
+    public long getBackwardNanos() {
+        return backwardNanos;
+    }
+
+    /**
+     * Returns the wall time of all forward and backward passes.
+     * 
+     * @return the total time in nanoseconds
+     */
+    public long getTotalNanos() {
+        return forwardNanos + backwardNanos;
+    }
+
+    /**
+     * Returns the number of samples (input columns) that went through the
+     * forward pass.
+     * 
+     * @return the number of samples
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Returns a rough estimate of the floating-point operations of all forward
+     * and backward passes. Matrix multiplications are counted exactly,
+     * element-wise layers as one operation per element.
+     * 
+     * @return the estimated number of floating-point operations
+     */
+    public long getFlops() {
+        return flops;
+    }
+
+    /**
+     * Returns the number of bytes the calling thread allocated on the heap
+     * during all forward and backward passes, or {@code 0} if the JVM doesn't
+     * support allocation measurement.
+     * 
+     * @return the allocated bytes
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Returns the throughput in samples per second of wall time spent in the
+     * forward and backward passes.
+     * 
+     * @return the samples per second or {@code 0.0} if no time has been spent
+     */
+    public double getSamplesPerSecond() {
+        long nanos = getTotalNanos();
+        return nanos == 0L ? 0.0 : samples * 1e9 / nanos;
+    }
+
+    /**
+     * Returns the estimated floating-point operations per second of wall time.
+     * 
+     * @return the estimated GFLOP/s or {@code 0.0} if no time has been spent
+     */
+    public double getGigaFlopsPerSecond() {
+        long nanos = getTotalNanos();
+        return nanos == 0L ? 0.0 : (double) flops / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%2d %-10s fwd: %8.3f ms  bwd: %8.3f ms  %7.2f GFLOP/s  %10.0f samples/s  %,d bytes",
+                layerIndex, layerName, forwardNanos / 1e6, backwardNanos / 1e6, getGigaFlopsPerSecond(),
+                getSamplesPerSecond(), allocatedBytes);
+    }
+}
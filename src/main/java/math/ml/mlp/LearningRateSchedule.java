@@ -0,0 +1,41 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * A learning rate that varies over the course of training. The trainer
+ * consults the schedule once per optimizer step.
+ */
+public interface LearningRateSchedule {
+
+    /**
+     * Returns the learning rate for the given optimizer step.
+     * 
+     * @param step the number of optimizer steps done so far (starting at 0)
+     * @return the learning rate to use for this step
+     */
+    float getLearningRate(long step);
+
+    /**
+     * Informs the schedule about the latest validation accuracy. Schedules that
+     * adapt to the training progress (e.g. {@link ReduceOnPlateau}) override
+     * this, the default implementation does nothing.
+     * 
+     * @param accuracy the validation accuracy
+     */
+    default void onValidationAccuracy(double accuracy) {
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * Ramps the learning rate linearly up to the initial learning rate of another
+ * schedule during the first {@code warmupSteps} steps and then hands over to
+ * that schedule (which sees its own step count starting at 0).
+ */
+public class LinearWarmup implements LearningRateSchedule {
+
+    private final LearningRateSchedule schedule;
+    private final long warmupSteps;
+
+    public LinearWarmup(LearningRateSchedule schedule, long warmupSteps) {
+        if (warmupSteps < 0L) {
+            throw new IllegalArgumentException("warmupSteps: " + warmupSteps);
+        }
+        this.schedule = schedule;
+        this.warmupSteps = warmupSteps;
+    }
+
+    @Override
+    public float getLearningRate(long step) {
+        if (step < warmupSteps) {
+            return schedule.getLearningRate(0L) * (step + 1) / warmupSteps;
+        }
+        return schedule.getLearningRate(step - warmupSteps);
+    }
+
+    @Override
+    public void onValidationAccuracy(double accuracy) {
+        schedule.onValidationAccuracy(accuracy);
+    }
+}
@@ -23,15 +23,54 @@ import net.jamu.matrix.MatrixF;
 
 public interface Loss extends Layer {
 
+    /**
+     * Registers a callback that receives the 1 x batchSize row vector of losses
+     * for each training batch. The matrix gets reused for the next batch, so a
+     * callback that wants to keep the values must copy them.
+     * 
+     * @param callback the loss callback
+     */
     void registerLossCallback(Consumer<MatrixF> callback);
 
     void registerAccuracyCallback(DoubleConsumer callback);
 
     void registerBatchExpectedValuesProvider(IntFunction<MatrixF> provider);
 
+    /**
+     * Sets the expected values for the next batch directly. These take
+     * precedence over the values or class indices from a registered provider,
+     * replace any class indices set by {@link #setExpectedLabels(int[])} and
+     * are used only once, by the next forward pass.
+     * 
+     * @param expected the expected values for the next batch
+     */
+    void setExpectedValues(MatrixF expected);
+
+    /**
+     * Registers a provider of the expected class indices (one per column) for
+     * each batch number, as a sparse alternative to a batch expected values
+     * provider. If both are registered the class indices take precedence.
+     * 
+     * @param provider the batch labels provider
+     */
+    void registerBatchLabelsProvider(IntFunction<int[]> provider);
+
+    /**
+     * Sets the expected class indices (one per column) for the next batch
+     * directly, as a sparse alternative to one-hot expected values. These take
+     * precedence over the values or class indices from a registered provider,
+     * replace any expected values set by {@link #setExpectedValues(MatrixF)} and
+     * are used only once, by the next forward pass. That pass rejects them with
+     * an {@code IllegalArgumentException} if there isn't one per column or a
+     * class index is out of range.
+     * 
+     * @param labels the expected class indices for the next batch
+     */
+    void setExpectedLabels(int[] labels);
+
     // by default backward() for a Loss function does nothing and shouldn't be
     // called
-    default MatrixF backward(MatrixF unused1, float unused2) {
+    default MatrixF backward(MatrixF unused) {
         return null;
     }
 }
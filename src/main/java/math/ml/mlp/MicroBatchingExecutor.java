@@ -0,0 +1,304 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Coalesces concurrent single-sample inference requests into batches. A
+ * background thread collects up to {@code maxBatchSize} queued requests,
+ * waiting at most {@code maxWait} after the first request of a batch has
+ * arrived for further ones, stacks their inputs column-wise into a single
+ * matrix, runs one {@link Network#infer(MatrixF)} call and completes the
+ * futures of the individual requests with their column of the result.
+ * <p>
+ * A larger {@code maxBatchSize} and a longer {@code maxWait} increase the
+ * throughput at the expense of latency; with {@code maxWait == 0} only those
+ * requests that are already queued get batched together. Requests are rejected
+ * when more than {@code queueCapacity} of them are waiting.
+ * <p>
+ * The network is only ever used by the background thread. The futures get
+ * completed on that thread, so expensive follow-up work should be scheduled
+ * with the {@code *Async} methods of {@link CompletableFuture}.
+ */
+public final class MicroBatchingExecutor implements AutoCloseable {
+
+    private static final class Request {
+        final MatrixF input;
+        final CompletableFuture<MatrixF> result = new CompletableFuture<>();
+        final long enqueuedNanos = System.nanoTime();
+
+        Request(MatrixF input) {
+            this.input = input;
+        }
+    }
+
+    private final Network network;
+    private final int inputSize;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue;
+    private final Thread worker;
+    private volatile boolean closed;
+
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    // written by the worker thread only
+    private volatile long batchCount;
+    private volatile long completedCount;
+    private volatile long queueTimeNanos;
+    private volatile int maxQueueDepth;
+
+    /**
+     * Creates an executor with a queue capacity of {@code 64 * maxBatchSize}.
+     * 
+     * @param network      the network to use, mustn't be used by anybody else
+     * @param inputSize    the number of rows of an input column vector
+     * @param maxBatchSize the maximum number of requests per batch
+     * @param maxWait      the maximum time to wait for a batch to fill up
+     * @param unit         the unit of {@code maxWait}
+     */
+    public MicroBatchingExecutor(Network network, int inputSize, int maxBatchSize, long maxWait, TimeUnit unit) {
+        this(network, inputSize, maxBatchSize, maxWait, unit, 64 * maxBatchSize);
+    }
+
+    /**
+     * Creates an executor.
+     * 
+     * @param network       the network to use, mustn't be used by anybody else
+     * @param inputSize     the number of rows of an input column vector
+     * @param maxBatchSize  the maximum number of requests per batch
+     * @param maxWait       the maximum time to wait for a batch to fill up
+     * @param unit          the unit of {@code maxWait}
+     * @param queueCapacity the maximum number of waiting requests
+     */
+    public MicroBatchingExecutor(Network network, int inputSize, int maxBatchSize, long maxWait, TimeUnit unit,
+            int queueCapacity) {
+        if (inputSize <= 0) {
+            throw new IllegalArgumentException("inputSize: " + inputSize);
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize: " + maxBatchSize);
+        }
+        if (maxWait < 0L) {
+            throw new IllegalArgumentException("maxWait: " + maxWait);
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity: " + queueCapacity);
+        }
+        this.network = network;
+        this.inputSize = inputSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        worker = new Thread(this::work, "micro-batcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues a single sample for inference.
+     * 
+     * @param input the {@code inputSize x 1} input column vector (mustn't be
+     *              modified until the returned future is complete)
+     * @return a future that gets completed with the output column vector, or
+     *         exceptionally with a {@link RejectedExecutionException} if the
+     *         queue is full or this executor has been closed
+     * @throws IllegalArgumentException if {@code input} isn't an
+     *                                  {@code inputSize x 1} column vector
+     */
+    public CompletableFuture<MatrixF> submit(MatrixF input) {
+        if (input.numRows() != inputSize || input.numColumns() != 1) {
+            throw new IllegalArgumentException(
+                    "expected " + inputSize + " x 1 but got " + input.numRows() + " x " + input.numColumns());
+        }
+        Request request = new Request(input);
+        if (closed || !queue.offer(request)) {
+            rejectedCount.increment();
+            request.result.completeExceptionally(
+                    new RejectedExecutionException(closed ? "executor has been closed" : "queue is full"));
+            return request.result;
+        }
+        submittedCount.increment();
+        if (closed && queue.remove(request)) {
+            // raced with close()
+            request.result.completeExceptionally(new RejectedExecutionException("executor has been closed"));
+        }
+        return request.result;
+    }
+
+    /**
+     * Returns the number of requests that have been accepted so far.
+     * 
+     * @return the number of accepted requests
+     */
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    /**
+     * Returns the number of requests that have been rejected so far.
+     * 
+     * @return the number of rejected requests
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Returns the number of requests whose inference has finished so far
+     * (successfully or not).
+     * 
+     * @return the number of completed requests
+     */
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Returns the number of batches run so far.
+     * 
+     * @return the number of batches
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Returns the average number of requests per batch so far.
+     * 
+     * @return the average batch size or {@code 0.0} if no batch has been run yet
+     */
+    public double getAverageBatchSize() {
+        long batches = batchCount;
+        return batches == 0L ? 0.0 : (double) completedCount / batches;
+    }
+
+    /**
+     * Returns the current number of waiting requests.
+     * 
+     * @return the current queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the largest number of requests that were waiting at the start of
+     * a batch.
+     * 
+     * @return the maximum queue depth seen so far
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Returns the total time the completed requests spent waiting in the queue.
+     * 
+     * @return the total queueing time in nanoseconds
+     */
+    public long getQueueTimeNanos() {
+        return queueTimeNanos;
+    }
+
+    /**
+     * Stops the background thread. Requests that are still queued get completed
+     * exceptionally with a {@link RejectedExecutionException}, the batch that is
+     * currently running (if any) still gets completed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+
+    private void work() {
+        ArrayList<Request> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!closed) {
+                Request first = queue.take();
+                maxQueueDepth = Math.max(maxQueueDepth, queue.size() + 1);
+                batch.add(first);
+                long deadline = first.enqueuedNanos + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    Request next;
+                    if (remaining <= 0L || (next = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                run(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+        RejectedExecutionException rejected = new RejectedExecutionException("executor has been closed");
+        for (Request request : batch) {
+            request.result.completeExceptionally(rejected);
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result.completeExceptionally(rejected);
+        }
+    }
+
+    private void run(ArrayList<Request> batch) {
+        int size = batch.size();
+        long start = System.nanoTime();
+        long queueTime = 0L;
+        MatrixF output = null;
+        Throwable failure = null;
+        try {
+            // stack the column vectors
+            MatrixF input = Matrices.createF(inputSize, size);
+            float[] in = input.getArrayUnsafe();
+            for (int i = 0; i < size; ++i) {
+                Request request = batch.get(i);
+                System.arraycopy(request.input.getArrayUnsafe(), 0, in, i * inputSize, inputSize);
+                queueTime += start - request.enqueuedNanos;
+            }
+            output = network.infer(input);
+        } catch (Throwable t) {
+            failure = t;
+        }
+        // update the metrics before anybody gets notified
+        queueTimeNanos += queueTime;
+        completedCount += size;
+        ++batchCount;
+        for (int i = 0; i < size; ++i) {
+            if (failure == null) {
+                batch.get(i).result.complete(output.selectColumn(i));
+            } else {
+                batch.get(i).result.completeExceptionally(failure);
+            }
+        }
+    }
+}
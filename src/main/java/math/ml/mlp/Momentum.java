@@ -0,0 +1,54 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * Stochastic gradient descent with (heavy ball) momentum:
+ * 
+ * <pre>
+ * v = momentum * v + g
+ * w = w - learningRate * v
+ * </pre>
+ */
+public class Momentum implements Optimizer {
+
+    protected final float momentum;
+
+    public Momentum() {
+        this(0.9f);
+    }
+
+    public Momentum(float momentum) {
+        if (momentum < 0.0f || momentum >= 1.0f) {
+            throw new IllegalArgumentException("momentum: " + momentum);
+        }
+        this.momentum = momentum;
+    }
+
+    @Override
+    public void update(Parameter parameter, float learningRate) {
+        float[] w = parameter.getValue().getArrayUnsafe();
+        float[] g = parameter.getGradient().getArrayUnsafe();
+        float[] v = parameter.getOptimizerState(1)[0];
+        float mu = momentum;
+        float avg = 1.0f / parameter.getSamples();
+        for (int i = 0; i < w.length; ++i) {
+            float vi = mu * v[i] + avg * g[i];
+            v[i] = vi;
+            w[i] -= learningRate * vi;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * Stochastic gradient descent with Nesterov momentum:
+ * 
+ * <pre>
+ * v = momentum * v + g
+ * w = w - learningRate * (g + momentum * v)
+ * </pre>
+ */
+public class Nesterov extends Momentum {
+
+    public Nesterov() {
+        super();
+    }
+
+    public Nesterov(float momentum) {
+        super(momentum);
+    }
+
+    @Override
+    public void update(Parameter parameter, float learningRate) {
+        float[] w = parameter.getValue().getArrayUnsafe();
+        float[] g = parameter.getGradient().getArrayUnsafe();
+        float[] v = parameter.getOptimizerState(1)[0];
+        float mu = momentum;
+        float avg = 1.0f / parameter.getSamples();
+        for (int i = 0; i < w.length; ++i) {
+            float gi = avg * g[i];
+            float vi = mu * v[i] + gi;
+            v[i] = vi;
+            w[i] -= learningRate * (gi + mu * vi);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * An update rule that applies the accumulated gradients of a
+ * {@link Parameter} to its value.
+ */
+public interface Optimizer {
+
+    /**
+     * Updates the value of {@code parameter} using the average of its
+     * accumulated gradients. The gradient itself is left untouched.
+     * 
+     * @param parameter    the parameter to update
+     * @param learningRate the learning rate
+     */
+    void update(Parameter parameter, float learningRate);
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A trainable parameter of a layer (e.g., the weights of a {@link Hidden}
+ * layer) together with its gradient buffer.
+ * <p>
+ * The gradient buffer holds the <b>sum</b> of the gradients over all samples
+ * that have been back-propagated since the gradient has been zeroed last, and
+ * {@link #getSamples()} counts these samples. An {@link Optimizer} applies the
+ * average gradient (the sum divided by the number of samples), which makes it
+ * straightforward to combine the gradients of several batches or of several
+ * replicas of a layer.
+ */
+public final class Parameter {
+
+    private final String name;
+    private final MatrixF value;
+    private final MatrixF gradient;
+    // false for parameters like biases that weight decay must leave alone
+    private final boolean decayed;
+    private int samples;
+    // optimizer state, allocated on first use
+    private float[][] state;
+    private long updateCount;
+
+    /**
+     * Creates a parameter with a zeroed gradient buffer that is subject to
+     * weight decay.
+     * 
+     * @param name  a name for the parameter
+     * @param value the value of the parameter
+     */
+    public Parameter(String name, MatrixF value) {
+        this(name, value, true);
+    }
+
+    /**
+     * Creates a parameter with a zeroed gradient buffer.
+     * 
+     * @param name    a name for the parameter
+     * @param value   the value of the parameter
+     * @param decayed whether an optimizer with weight decay (e.g.,
+     *                {@link AdamW}) should decay this parameter; {@code false}
+     *                for biases
+     */
+    public Parameter(String name, MatrixF value, boolean decayed) {
+        this.name = name;
+        this.value = value;
+        this.gradient = Matrices.sameDimF(value);
+        this.decayed = decayed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns whether weight decay applies to this parameter.
+     * 
+     * @return {@code true} for weights, {@code false} for biases
+     */
+    public boolean isDecayed() {
+        return decayed;
+    }
+
+    /**
+     * Returns the value of this parameter which gets updated in place.
+     * 
+     * @return the value of this parameter
+     */
+    public MatrixF getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the sum of the gradients accumulated since the last call of
+     * {@link #zeroGradient()}.
+     * 
+     * @return the gradient sum
+     */
+    public MatrixF getGradient() {
+        return gradient;
+    }
+
+    /**
+     * Returns the number of samples whose gradients have been accumulated since
+     * the last call of {@link #zeroGradient()}.
+     * 
+     * @return the number of accumulated samples
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Records that the gradients of {@code count} further samples have been added
+     * to the gradient sum.
+     * 
+     * @param count the number of samples
+     */
+    public void addSamples(int count) {
+        samples += count;
+    }
+
+    /**
+     * Adds the accumulated gradient sum (and sample count) of {@code other} to
+     * this parameter's gradient sum.
+     * 
+     * @param other a parameter with the same dimensions
+     */
+    public void accumulate(Parameter other) {
+        gradient.addInplace(other.gradient);
+        samples += other.samples;
+    }
+
+    /**
+     * Resets the gradient sum and the sample count to zero.
+     */
+    public void zeroGradient() {
+        gradient.zeroInplace();
+        samples = 0;
+    }
+
+    /**
+     * Returns {@code slots} zero-initialized arrays of the same length as the
+     * value's backing array in which an {@link Optimizer} can keep its state
+     * (e.g., moment estimates) for this parameter. The arrays are allocated only
+     * once and then returned on each call with the same number of slots.
+     * 
+     * @param slots the number of state arrays
+     * @return the optimizer state arrays of this parameter
+     */
+    public float[][] getOptimizerState(int slots) {
+        if (state == null || state.length != slots) {
+            state = new float[slots][value.getArrayUnsafe().length];
+        }
+        return state;
+    }
+
+    /**
+     * Increments and returns the number of optimizer updates of this parameter.
+     * 
+     * @return the number of updates including the current one
+     */
+    public long incrementUpdateCount() {
+        return ++updateCount;
+    }
+}
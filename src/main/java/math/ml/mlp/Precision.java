@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * The precision in which a frozen {@link Hidden} layer stores its weights.
+ * Half precision weights need half the memory (and half the memory bandwidth
+ * during inference) of {@link #FLOAT32} weights. Computations are always done
+ * in float, only the storage differs.
+ */
+public enum Precision {
+
+    /** IEEE 754 single precision (the precision used for training). */
+    FLOAT32,
+
+    /**
+     * bfloat16: the upper 16 bits of a float, i.e., the full float exponent
+     * range but only 8 bits of precision.
+     */
+    BFLOAT16,
+
+    /**
+     * IEEE 754 half precision: 11 bits of precision but a range of only about
+     * 6e-8 to 65504.
+     */
+    FLOAT16;
+
+    /**
+     * Converts {@code f} into this precision (rounding to nearest-even).
+     * 
+     * @param f the value to convert
+     * @return the 16 bits of the converted value
+     * @throws UnsupportedOperationException for {@link #FLOAT32}
+     */
+    short encode(float f) {
+        switch (this) {
+        case BFLOAT16:
+            return toBFloat16(f);
+        case FLOAT16:
+            return toFloat16(f);
+        default:
+            throw new UnsupportedOperationException(name());
+        }
+    }
+
+    /**
+     * Converts the 16 bits {@code h} of a value in this precision back to a
+     * float (which is exact).
+     * 
+     * @param h the 16 bits of the value
+     * @return the value as a float
+     * @throws UnsupportedOperationException for {@link #FLOAT32}
+     */
+    float decode(short h) {
+        switch (this) {
+        case BFLOAT16:
+            return fromBFloat16(h);
+        case FLOAT16:
+            return fromFloat16(h);
+        default:
+            throw new UnsupportedOperationException(name());
+        }
+    }
+
+    static short toBFloat16(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        if (Float.isNaN(f)) {
+            // keep it a (quiet) NaN
+            return (short) ((bits >>> 16) | 0x40);
+        }
+        // round to nearest-even on the 16 bits that get cut off
+        bits += 0x7fff + ((bits >>> 16) & 1);
+        return (short) (bits >>> 16);
+    }
+
+    static float fromBFloat16(short h) {
+        return Float.intBitsToFloat(h << 16);
+    }
+
+    static short toFloat16(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        float abs = Math.abs(f);
+        if (Float.isNaN(f)) {
+            return (short) (sign | 0x7e00);
+        }
+        if (abs >= 65520.0f) {
+            // rounds to infinity (65520 is halfway between 65504 and 2^16)
+            return (short) (sign | 0x7c00);
+        }
+        if (abs <= 0x1.0p-25f) {
+            // rounds to zero (2^-25 is halfway between 0 and 2^-24)
+            return (short) sign;
+        }
+        int exp = Math.getExponent(abs);
+        if (exp < -14) {
+            // subnormal: a multiple of 2^-24 (rint rounds to even, and a result of
+            // 0x400 correctly becomes the smallest normal number)
+            return (short) (sign | (int) Math.rint(abs * 0x1.0p24f));
+        }
+        int mantissa = (bits & 0x7fffff) >>> 13;
+        int rest = bits & 0x1fff;
+        if (rest > 0x1000 || (rest == 0x1000 && (mantissa & 1) != 0)) {
+            // may carry into the exponent which is exactly what we want
+            ++mantissa;
+        }
+        return (short) (sign | (((exp + 15) << 10) + mantissa));
+    }
+
+    static float fromFloat16(short h) {
+        int sign = (h & 0x8000) << 16;
+        int exp = (h >>> 10) & 0x1f;
+        int mantissa = h & 0x3ff;
+        if (exp == 0x1f) {
+            // infinity or NaN
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exp == 0) {
+            // zero or subnormal
+            float f = mantissa * 0x1.0p-24f;
+            return sign == 0 ? f : -f;
+        }
+        return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mantissa << 13));
+    }
+}
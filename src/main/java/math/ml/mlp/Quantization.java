@@ -0,0 +1,103 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Post-training int8 quantization of the {@link Hidden} layers of a
+ * {@link FrozenNetwork}.
+ * <p>
+ * The weights of each layer are quantized with one scale per output row. The
+ * scale for the input of each layer is picked during calibration: a few
+ * representative batches are run through the float network and the largest
+ * absolute value that has been seen at the input of the layer gets mapped to
+ * 127. Inputs beyond that range are clipped.
+ */
+public final class Quantization {
+
+    /**
+     * Creates an int8 version of {@code network} where each {@link Hidden} layer
+     * (frozen in {@link Precision#FLOAT32}) is replaced by its quantized
+     * counterpart. All other layers are taken over as they are.
+     * 
+     * @param network            the float network to quantize
+     * @param calibrationBatches sample inputs (as column vectors) that are used
+     *                           to pick the activation scales
+     * @return the quantized network
+     * @throws IllegalArgumentException if there are no calibration batches
+     */
+    public static FrozenNetwork quantize(FrozenNetwork network, Iterable<MatrixF> calibrationBatches) {
+        List<InferenceLayer> layers = network.getLayers();
+        float[] maxAbs = new float[layers.size()];
+        boolean calibrated = false;
+        for (MatrixF input : calibrationBatches) {
+            for (int i = 0; i < layers.size(); ++i) {
+                InferenceLayer layer = layers.get(i);
+                if (layer instanceof FrozenHidden) {
+                    maxAbs[i] = Math.max(maxAbs[i], maxAbs(input));
+                }
+                input = layer.infer(input);
+            }
+            calibrated = true;
+        }
+        if (!calibrated) {
+            throw new IllegalArgumentException("no calibration batches");
+        }
+        ArrayList<InferenceLayer> quantized = new ArrayList<>(layers.size());
+        for (int i = 0; i < layers.size(); ++i) {
+            InferenceLayer layer = layers.get(i);
+            if (layer instanceof FrozenHidden) {
+                FrozenHidden hidden = (FrozenHidden) layer;
+                layer = new QuantizedHidden(hidden.getWeights(), hidden.getBiases(), hidden.getName(),
+                        hidden.getActivation(), QuantizedHidden.scale(maxAbs[i]));
+            }
+            quantized.add(layer);
+        }
+        return new FrozenNetwork(quantized);
+    }
+
+    /**
+     * Computes the accuracy of {@code quantized} minus the accuracy of
+     * {@code reference} (as computed by {@link CategorialAccuracy}) on the given
+     * inputs.
+     * 
+     * @param reference the float network
+     * @param quantized the quantized network
+     * @param input     the inputs as column vectors
+     * @param expected  the expected (one-hot) values as column vectors
+     * @return the accuracy difference, negative if quantization lost accuracy
+     */
+    public static double accuracyDelta(Network reference, Network quantized, MatrixF input, MatrixF expected) {
+        double referenceAccuracy = CategorialAccuracy.computeAccuracy(reference.infer(input), expected);
+        return CategorialAccuracy.computeAccuracy(quantized.infer(input), expected) - referenceAccuracy;
+    }
+
+    private static float maxAbs(MatrixF m) {
+        float max = 0.0f;
+        for (float x : m.getArrayUnsafe()) {
+            max = Math.max(max, Math.abs(x));
+        }
+        return max;
+    }
+
+    private Quantization() {
+        throw new AssertionError();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import net.jamu.matrix.FFunction;
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Immutable int8 version of a frozen {@link Hidden} layer (optionally fused
+ * with its activation function). The weights are quantized symmetrically with
+ * one scale per output row, the input gets quantized symmetrically with the
+ * scale that has been determined during calibration (see
+ * {@link Quantization}). The products are accumulated in int and converted
+ * back to float once per output element, before adding the float biases.
+ */
+final class QuantizedHidden implements InferenceLayer {
+
+    // number of input columns that are processed together
+    private static final int COL_BLOCK = 4;
+
+    // j x i, row-major
+    private final byte[] weights;
+    // j x 1, weight scale of the row times the input scale
+    private final float[] scales;
+    // j x 1
+    private final float[] biases;
+    private final float inputScale;
+    private final int rows;
+    private final int cols;
+    private final String name;
+    // null if there is no activation
+    private final FFunction activation;
+
+    QuantizedHidden(MatrixF weights, MatrixF biases, String name, FFunction activation, float inputScale) {
+        this.rows = weights.numRows();
+        this.cols = weights.numColumns();
+        this.weights = new byte[rows * cols];
+        this.scales = new float[rows];
+        for (int row = 0; row < rows; ++row) {
+            float maxAbs = 0.0f;
+            for (int col = 0; col < cols; ++col) {
+                maxAbs = Math.max(maxAbs, Math.abs(weights.getUnsafe(row, col)));
+            }
+            float scale = scale(maxAbs);
+            for (int col = 0; col < cols; ++col) {
+                this.weights[row * cols + col] = quantize(weights.getUnsafe(row, col), 1.0f / scale);
+            }
+            this.scales[row] = scale * inputScale;
+        }
+        this.biases = biases.getArrayUnsafe().clone();
+        this.inputScale = inputScale;
+        this.name = name;
+        this.activation = activation;
+    }
+
+    @Override
+    public MatrixF infer(MatrixF input) {
+        int batchSize = input.numColumns();
+        // (j x i) * (i x m) + (j x m) = (j x m)
+        MatrixF output = Matrices.createF(rows, batchSize);
+        float[] x = input.getArrayUnsafe();
+        float[] y = output.getArrayUnsafe();
+        byte[] qx = new byte[COL_BLOCK * cols];
+        float invInputScale = 1.0f / inputScale;
+        int col = 0;
+        for (; col + COL_BLOCK <= batchSize; col += COL_BLOCK) {
+            for (int i = 0; i < qx.length; ++i) {
+                qx[i] = quantize(x[col * cols + i], invInputScale);
+            }
+            int y0 = col * rows;
+            int y1 = y0 + rows;
+            int y2 = y1 + rows;
+            int y3 = y2 + rows;
+            // each weight gets loaded only once for 4 input columns
+            for (int r = 0; r < rows; ++r) {
+                int wOff = r * cols;
+                int a0 = 0;
+                int a1 = 0;
+                int a2 = 0;
+                int a3 = 0;
+                for (int k = 0; k < cols; ++k) {
+                    int w = weights[wOff + k];
+                    a0 += w * qx[k];
+                    a1 += w * qx[cols + k];
+                    a2 += w * qx[2 * cols + k];
+                    a3 += w * qx[3 * cols + k];
+                }
+                float scale = scales[r];
+                float bias = biases[r];
+                y[y0 + r] = activate(a0 * scale + bias);
+                y[y1 + r] = activate(a1 * scale + bias);
+                y[y2 + r] = activate(a2 * scale + bias);
+                y[y3 + r] = activate(a3 * scale + bias);
+            }
+        }
+        for (; col < batchSize; ++col) {
+            for (int i = 0; i < cols; ++i) {
+                qx[i] = quantize(x[col * cols + i], invInputScale);
+            }
+            int yOff = col * rows;
+            for (int r = 0; r < rows; ++r) {
+                int wOff = r * cols;
+                int acc = 0;
+                for (int k = 0; k < cols; ++k) {
+                    acc += weights[wOff + k] * qx[k];
+                }
+                y[yOff + r] = activate(acc * scales[r] + biases[r]);
+            }
+        }
+        return output;
+    }
+
+    private float activate(float x) {
+        return (activation == null) ? x : activation.apply(x);
+    }
+
+    /**
+     * Returns the scale that maps {@code [-maxAbs, maxAbs]} onto
+     * {@code [-127, 127]}.
+     */
+    static float scale(float maxAbs) {
+        // a row or input that is all zeros can have any scale
+        return (maxAbs > 0.0f) ? maxAbs / 127.0f : 1.0f;
+    }
+
+    private static byte quantize(float x, float invScale) {
+        int q = Math.round(x * invScale);
+        return (byte) Math.max(-127, Math.min(127, q));
+    }
+
+    /**
+     * Returns the number of bytes occupied by the stored weights.
+     */
+    long getWeightBytes() {
+        return weights.length;
+    }
+
+    float getInputScale() {
+        return inputScale;
+    }
+
+    String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * Multiplies the learning rate by {@code factor} (but not below
+ * {@code minimum}) whenever the validation accuracy hasn't improved for more
+ * than {@code patience} consecutive validations.
+ */
+public class ReduceOnPlateau implements LearningRateSchedule {
+
+    private final float factor;
+    private final int patience;
+    private final float minimum;
+    private float learningRate;
+    private double bestAccuracy = Double.NEGATIVE_INFINITY;
+    private int validationsWithoutImprovement = 0;
+
+    public ReduceOnPlateau(float initial, float factor, int patience, float minimum) {
+        if (factor <= 0.0f || factor >= 1.0f) {
+            throw new IllegalArgumentException("factor: " + factor);
+        }
+        if (patience < 0) {
+            throw new IllegalArgumentException("patience: " + patience);
+        }
+        this.learningRate = initial;
+        this.factor = factor;
+        this.patience = patience;
+        this.minimum = minimum;
+    }
+
+    @Override
+    public float getLearningRate(long step) {
+        return learningRate;
+    }
+
+    @Override
+    public void onValidationAccuracy(double accuracy) {
+        if (accuracy > bestAccuracy) {
+            bestAccuracy = accuracy;
+            validationsWithoutImprovement = 0;
+        } else if (++validationsWithoutImprovement > patience) {
+            learningRate = Math.max(minimum, learningRate * factor);
+            validationsWithoutImprovement = 0;
+        }
+    }
+}
@@ -16,10 +16,80 @@
 package math.ml.mlp;
 
 import math.dl.RELU;
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
 
+/**
+ * ReLU activation. In TRAIN mode only a bitmask of the elements whose
+ * derivative is {@code 0} is kept for the backward pass (instead of the input),
+ * which then zeroes those elements of the incoming gradients in place.
+ */
 public class Relu extends Activation {
 
+    // j x m, reused in TRAIN mode
+    private MatrixF output;
+    // bit (col * rows + row) is set if relu'(input) == 0 for that element
+    private long[] inactive = new long[0];
+
     public Relu() {
         super(RELU::reluF, RELU::dreluF_dx);
     }
+
+    @Override
+    public MatrixF forward(MatrixF input) {
+        if (mode == NetworkMode.INFER) {
+            return super.forward(input);
+        }
+        // j x m
+        output = reuse(output, input.numRows(), input.numColumns());
+        float[] in = input.getArrayUnsafe();
+        int words = (in.length + 63) >>> 6;
+        if (inactive.length != words) {
+            inactive = new long[words];
+        }
+        Kernels.get().relu(in, output.getArrayUnsafe(), inactive, in.length);
+        return output;
+    }
+
+    // outputGrads : j x m
+    @Override
+    public MatrixF backward(MatrixF outputGrads) {
+        if (mode == NetworkMode.INFER) {
+            return null;
+        }
+        // (j x m) o (j x m), computed in place
+        float[] grads = outputGrads.getArrayUnsafe();
+        Kernels.get().dropout(grads, inactive, 1.0f, 0, grads.length);
+        return outputGrads;
+    }
+
+    @Override
+    public void releaseBuffers() {
+        super.releaseBuffers();
+        output = null;
+        inactive = new long[0];
+    }
+
+    @Override
+    public InferenceLayer freeze() {
+        return Relu::relu;
+    }
+
+    @Override
+    protected void activate(float[] in, float[] out, int length) {
+        Kernels.get().relu(in, out, length);
+    }
+
+    /**
+     * Computes the ReLU of {@code input} into a new matrix.
+     * 
+     * @param input the input matrix
+     * @return a new matrix holding the ReLU of each element of {@code input}
+     */
+    static MatrixF relu(MatrixF input) {
+        MatrixF output = Matrices.sameDimF(input);
+        float[] in = input.getArrayUnsafe();
+        Kernels.get().relu(in, output.getArrayUnsafe(), in.length);
+        return output;
+    }
 }
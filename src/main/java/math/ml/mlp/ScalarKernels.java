@@ -0,0 +1,204 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import math.dl.RELU;
+
+/**
+ * Plain Java implementation of the {@link Kernels}.
+ */
+final class ScalarKernels extends Kernels {
+
+    // GELU tanh approximation: tanh(C * (x + K * x^3))
+    private static final double C = Math.sqrt(2.0 / Math.PI);
+    private static final double K = 0.044715;
+
+    ScalarKernels() {
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public void relu(float[] x, float[] y, int length) {
+        for (int i = 0; i < length; ++i) {
+            y[i] = RELU.reluF(x[i]);
+        }
+    }
+
+    @Override
+    public void relu(float[] x, float[] y, long[] inactive, int length) {
+        for (int i = 0; i < length; ++i) {
+            float v = x[i];
+            if ((i & 63) == 0) {
+                inactive[i >>> 6] = 0L;
+            }
+            if (RELU.dreluF_dx(v) == 0.0f) {
+                inactive[i >>> 6] |= 1L << i;
+            }
+            y[i] = RELU.reluF(v);
+        }
+    }
+
+    @Override
+    public void relu(float[] x, float[] bias, float[] y, long[] inactive, int off, int length) {
+        for (int i = 0; i < length; ++i) {
+            int p = off + i;
+            float v = x[p] + bias[i];
+            if (RELU.dreluF_dx(v) == 0.0f) {
+                inactive[p >>> 6] |= 1L << p;
+            } else {
+                inactive[p >>> 6] &= ~(1L << p);
+            }
+            y[p] = RELU.reluF(v);
+        }
+    }
+
+    @Override
+    public void reluBackward(float[] x, float[] grads, int length) {
+        for (int i = 0; i < length; ++i) {
+            grads[i] *= RELU.dreluF_dx(x[i]);
+        }
+    }
+
+    @Override
+    public void gelu(float[] x, float[] y, int length) {
+        for (int i = 0; i < length; ++i) {
+            float v = x[i];
+            y[i] = gelu(v, geluTanh(v));
+        }
+    }
+
+    @Override
+    public void gelu(float[] x, float[] y, float[] derivative, int length) {
+        for (int i = 0; i < length; ++i) {
+            float v = x[i];
+            // the tanh term is shared by the function and its derivative
+            double t = geluTanh(v);
+            y[i] = gelu(v, t);
+            derivative[i] = geluDerivative(v, t);
+        }
+    }
+
+    @Override
+    public void gelu(float[] x, float[] bias, float[] y, float[] derivative, int off, int length) {
+        for (int i = 0; i < length; ++i) {
+            int p = off + i;
+            float v = x[p] + bias[i];
+            double t = geluTanh(v);
+            y[p] = gelu(v, t);
+            derivative[p] = geluDerivative(v, t);
+        }
+    }
+
+    @Override
+    public void geluBackward(float[] x, float[] grads, int length) {
+        for (int i = 0; i < length; ++i) {
+            float v = x[i];
+            grads[i] *= geluDerivative(v, geluTanh(v));
+        }
+    }
+
+    @Override
+    public void softmax(float[] x, float[] y, int off, int length) {
+        math.dl.Softmax.softmaxF(length, off, x, off, y);
+    }
+
+    @Override
+    public void softmaxBackward(float[] s, float[] grads, int off, int length) {
+        int end = off + length;
+        float dot = 0.0f;
+        for (int i = off; i < end; ++i) {
+            dot += s[i] * grads[i];
+        }
+        for (int i = off; i < end; ++i) {
+            grads[i] = s[i] * (grads[i] - dot);
+        }
+    }
+
+    @Override
+    public float crossEntropy(float[] expected, float[] pred, int off, int length) {
+        float productSum = 0.0f;
+        for (int i = off, end = off + length; i < end; ++i) {
+            float e = expected[i];
+            if (e != 0.0f) {
+                productSum += e * log(pred[i]);
+            }
+        }
+        return -productSum;
+    }
+
+    @Override
+    public void crossEntropyGradient(float[] expected, float[] pred, float[] grads, int length) {
+        for (int i = 0; i < length; ++i) {
+            float e = expected[i];
+            grads[i] = (e != 0.0f) ? -e / clamp(pred[i]) : 0.0f;
+        }
+    }
+
+    @Override
+    public void subtract(float[] x, float[] y, int length) {
+        for (int i = 0; i < length; ++i) {
+            x[i] -= y[i];
+        }
+    }
+
+    @Override
+    public void multiply(float[] x, float[] y, int length) {
+        for (int i = 0; i < length; ++i) {
+            x[i] *= y[i];
+        }
+    }
+
+    @Override
+    public void dropout(float[] x, long[] mask, float scale, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if ((mask[i >>> 6] & (1L << i)) != 0L) {
+                x[i] = 0.0f;
+            } else {
+                x[i] *= scale;
+            }
+        }
+    }
+
+    static double geluTanh(float x) {
+        return Math.tanh(C * (x + K * x * x * x));
+    }
+
+    // 0.5 * x * (1 + t) for t = geluTanh(x)
+    static float gelu(float x, double t) {
+        return (float) (0.5 * x * (1.0 + t));
+    }
+
+    // the derivative of gelu(x) for t = geluTanh(x)
+    static float geluDerivative(float x, double t) {
+        return (float) (0.5 * (1.0 + t) + 0.5 * x * (1.0 - t * t) * C * (1.0 + 3.0 * K * x * x));
+    }
+
+    static float log(float x) {
+        return (float) Math.log(clamp(x));
+    }
+
+    static float clamp(float x) {
+        // x should never be <= 0
+        if (x <= 0.0f) {
+            return Float.MIN_NORMAL;
+        }
+        return x;
+    }
+}
@@ -27,56 +27,73 @@ public final class Softmax extends AbstractLayer {
 
     public MatrixF forward(MatrixF input) {
         // no need to remember the input
-        MatrixF output = Matrices.sameDimF(input);
-        float[] in = input.getArrayUnsafe();
-        float[] out = output.getArrayUnsafe();
-        // compute softmax for each column of input
-        int length = input.numRows();
-        int off = 0;
-        for (int col = 0; col < input.numColumns(); ++col) {
-            math.dl.Softmax.softmaxF(length, off, in, off, out);
-            off += length;
-        }
         if (mode == NetworkMode.TRAIN) {
             // but we need the output for training
-            this.output = output;
+            output = reuse(output, input.numRows(), input.numColumns());
+            return softmax(input, output);
         }
-        return output;
+        return softmax(input);
     }
 
     @Override
-    public MatrixF backward(MatrixF lossGrads, float unused) {
+    public MatrixF backward(MatrixF lossGrads) {
         if (mode == NetworkMode.INFER) {
             return null;
         }
+        // The Jacobian of the softmax s of a column is diag(s) - s * s^T, so the
+        // vector-Jacobian product for that column's gradient g is s o (g - (s . g)).
+        // This is computed in place, column by column, without ever materializing
+        // the Jacobian.
+        Kernels kernels = Kernels.get();
         int rows = output.numRows();
-        int cols = output.numColumns();
-        MatrixF gradientsOut = Matrices.createF(rows, cols);
-        MatrixF jacobian = Matrices.createF(rows, rows);
-        MatrixF oneGrad = Matrices.createF(rows, 1);
-        for (int col = 0; col < cols; ++col) {
-            for (int i = 0; i < rows; ++i) {
-                for (int j = 0; j < rows; ++j) {
-                    if (i < j) {
-                        float si = output.getUnsafe(i, col);
-                        float sj = output.getUnsafe(j, col);
-                        float sij = -si * sj;
-                        jacobian.setUnsafe(j, i, sij);
-                        jacobian.setUnsafe(i, j, sij);
-                    } else if (i == j) {
-                        float sii = output.getUnsafe(i, col);
-                        jacobian.setUnsafe(i, i, sii * (1.0f - sii));
-                    }
-                }
-            }
-            // get the corresponding lossGrads column
-            MatrixF lossGrad = lossGrads.selectColumn(col);
-            // compute the gradient for this column
-            oneGrad = jacobian.mult(lossGrad, oneGrad);
-            // store it in the corresponding column of gradientsOut
-            gradientsOut.setColumnInplace(col, oneGrad);
+        float[] s = output.getArrayUnsafe();
+        float[] g = lossGrads.getArrayUnsafe();
+        for (int off = 0; off < g.length; off += rows) {
+            kernels.softmaxBackward(s, g, off, rows);
         }
+        return lossGrads;
+    }
+
+    @Override
+    public void releaseBuffers() {
+        super.releaseBuffers();
         output = null;
-        return gradientsOut;
+    }
+
+    @Override
+    public InferenceLayer freeze() {
+        return Softmax::softmax;
+    }
+
+    /**
+     * Computes the softmax for each column of {@code input} into a new matrix.
+     * 
+     * @param input the matrix of column vectors
+     * @return a new matrix holding the softmax of each column of {@code input}
+     */
+    static MatrixF softmax(MatrixF input) {
+        return softmax(input, Matrices.sameDimF(input));
+    }
+
+    /**
+     * Computes the softmax for each column of {@code input} into {@code output}.
+     * 
+     * @param input  the matrix of column vectors
+     * @param output the matrix that receives the result, must have the same
+     *               dimensions as {@code input}
+     * @return {@code output}
+     */
+    static MatrixF softmax(MatrixF input, MatrixF output) {
+        Kernels kernels = Kernels.get();
+        float[] in = input.getArrayUnsafe();
+        float[] out = output.getArrayUnsafe();
+        // compute softmax for each column of input
+        int length = input.numRows();
+        int off = 0;
+        for (int col = 0; col < input.numColumns(); ++col) {
+            kernels.softmax(in, out, off, length);
+            off += length;
+        }
+        return output;
     }
 }
@@ -15,46 +15,75 @@
  */
 package math.ml.mlp;
 
-import net.jamu.matrix.Matrices;
 import net.jamu.matrix.MatrixF;
 
 /**
- * Softmax combined with CrossEntropyLoss.
+ * Softmax combined with CrossEntropyLoss. In TRAIN mode the softmax, the
+ * losses, the accuracy and the gradients are computed column by column in a
+ * single fused pass over the backing arrays. The expected values can either be
+ * one-hot columns or class indices (see {@link #setExpectedLabels(int[])}).
  */
 public class SoftmaxCrossEntropyLoss extends AbstractLoss {
 
     private MatrixF gradients;
+    // reused in TRAIN mode
+    private MatrixF output;
+    private MatrixF losses;
 
     public SoftmaxCrossEntropyLoss() {
     }
 
     public MatrixF forward(MatrixF input) {
         // no need to remember the input
-        MatrixF output = Matrices.sameDimF(input);
-        float[] in = input.getArrayUnsafe();
-        float[] out = output.getArrayUnsafe();
-        // compute softmax for each column of input
-        int length = input.numRows();
-        int off = 0;
-        for (int col = 0; col < input.numColumns(); ++col) {
-            math.dl.Softmax.softmaxF(length, off, in, off, out);
-            off += length;
-        }
         if (mode == NetworkMode.INFER) {
-            return output;
+            clearExpectations();
+            return Softmax.softmax(input);
         }
-        MatrixF expected = getExpectation();
-        if (expected == null) {
+        int[] labels = getExpectedLabels(input);
+        MatrixF expected = (labels == null) ? getExpectation() : null;
+        if (labels == null && expected == null) {
             return null;
         }
-        computeLosses(output, expected);
-        computeAccuracy(output, expected);
-        gradients = computeGradients(output, expected);
+        int rows = input.numRows();
+        int cols = input.numColumns();
+        output = reuse(output, rows, cols);
+        float[] x = input.getArrayUnsafe();
+        float[] g = output.getArrayUnsafe();
+        float[] e = (expected == null) ? null : expected.getArrayUnsafe();
+        float[] l = null;
+        if (lossCallback != null) {
+            losses = reuse(losses, 1, cols);
+            l = losses.getArrayUnsafe();
+        }
+        boolean accuracy = accuracyCallback != null;
+        int correct = 0;
+        Kernels kernels = Kernels.get();
+        for (int col = 0, off = 0; col < cols; ++col, off += rows) {
+            if (accuracy) {
+                // the argmax of the logits is the argmax of the softmax
+                int expectedClass = (labels != null) ? labels[col] : kernels.argmax(e, off, rows);
+                if (kernels.argmax(x, off, rows) == expectedClass) {
+                    ++correct;
+                }
+            }
+            float loss = (labels != null) ? kernels.softmaxCrossEntropy(x, labels[col], g, off, rows)
+                    : kernels.softmaxCrossEntropy(x, e, g, off, rows);
+            if (l != null) {
+                l[col] = loss;
+            }
+        }
+        if (l != null) {
+            lossCallback.accept(losses);
+        }
+        if (accuracy) {
+            accuracyCallback.accept(cols == 0 ? 0.0 : (double) correct / cols);
+        }
+        gradients = output;
         return gradients;
     }
 
     @Override
-    public MatrixF backward(MatrixF lossGrads, float unused) {
+    public MatrixF backward(MatrixF lossGrads) {
         if (mode == NetworkMode.INFER) {
             return null;
         }
@@ -63,50 +92,9 @@ public class SoftmaxCrossEntropyLoss extends AbstractLoss {
         return gradsOut;
     }
 
-    private MatrixF computeGradients(MatrixF pred, MatrixF expect) {
-        return pred.minus(expect);
-    }
-
-    /**
-     * Computes 1 x batchSize row vector of cross-entropy losses for same-sized
-     * matrices of expected values (expect) and predicted values (pred) expressed as
-     * column vectors in those matrices.
-     * 
-     * @param pred   predicted values as a matrix of column vectors
-     * @param expect expected values as a matrix of column vectors
-     */
-    private void computeLosses(MatrixF pred, MatrixF expect) {
-        if (lossCallback != null) {
-            MatrixF loss = Matrices.createF(1, pred.numColumns());
-            for (int i = 0, colEnd = pred.endCol(), rowEnd = pred.endRow(); i <= colEnd; ++i) {
-                float productSum = 0.0f;
-                for (int j = 0; j <= rowEnd; ++j) {
-                    float expected = expect.getUnsafe(j, i);
-                    if (expected != 0.0f) {
-                        productSum += expected * log(pred.getUnsafe(j, i));
-                    }
-                }
-                loss.setUnsafe(0, i, -productSum);
-            }
-            lossCallback.accept(loss);
-        }
-    }
-
-    private void computeAccuracy(MatrixF pred, MatrixF expect) {
-        if (accuracyCallback != null) {
-            accuracyCallback.accept(CategorialAccuracy.computeAccuracy(pred, expect));
-        }
-    }
-
-    private static float log(float x) {
-        return (float) Math.log(clamp(x));
-    }
-
-    private static float clamp(float x) {
-        // x should never be <= 0
-        if (x <= 0.0f) {
-            return Float.MIN_NORMAL;
-        }
-        return x;
+    @Override
+    public InferenceLayer freeze() {
+        // behaves like Softmax for inference
+        return Softmax::softmax;
     }
 }
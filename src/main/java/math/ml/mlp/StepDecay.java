@@ -0,0 +1,40 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+/**
+ * Multiplies the learning rate by {@code factor} every {@code stepSize} steps.
+ */
+public class StepDecay implements LearningRateSchedule {
+
+    private final float initial;
+    private final float factor;
+    private final long stepSize;
+
+    public StepDecay(float initial, float factor, long stepSize) {
+        if (stepSize <= 0L) {
+            throw new IllegalArgumentException("stepSize: " + stepSize);
+        }
+        this.initial = initial;
+        this.factor = factor;
+        this.stepSize = stepSize;
+    }
+
+    @Override
+    public float getLearningRate(long step) {
+        return (float) (initial * Math.pow(factor, step / stepSize));
+    }
+}
@@ -23,6 +23,18 @@ public interface TrainableNetwork extends Network {
     // this NEEDS to be implemented in order for a Network to be trainable
     Network train(MatrixF input, float learningRate);
 
+    /**
+     * Trains on a batch whose expected values are supplied together with the
+     * input instead of being retrieved via
+     * {@link #getExpectedBatchResults(int)}.
+     * 
+     * @param input        the inputs of the batch as column vectors
+     * @param expected     the expected values of the batch as column vectors
+     * @param learningRate the learning rate
+     * @return this network or {@code null} if training isn't possible
+     */
+    Network train(MatrixF input, MatrixF expected, float learningRate);
+
     // this NEEDS to be implemented in order for a Network to be trainable
     MatrixF getExpectedBatchResults(int batchNumber);
 
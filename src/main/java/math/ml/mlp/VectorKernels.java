@@ -0,0 +1,376 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import math.dl.RELU;
+
+/**
+ * {@link Kernels} implemented with the (incubating) JDK Vector API. Only ever
+ * instantiated reflectively by {@link Kernels} after it has checked that the
+ * {@code jdk.incubator.vector} module is present. The remainder of an array
+ * that doesn't fill a whole vector is processed with the scalar code.
+ */
+final class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final VectorSpecies<Integer> INT_SPECIES = SPECIES.withLanes(int.class);
+    // lane n holds 1 << n. The bits of a mask word get moved in and out of the
+    // vector lanes with these (VectorMask.fromLong / toLong aren't intrinsified
+    // and would box a mask per vector)
+    private static final IntVector LANE_BITS = IntVector.broadcast(INT_SPECIES, 1)
+            .lanewise(VectorOperators.LSHL, IntVector.zero(INT_SPECIES).addIndex(1));
+    // the low LANES bits
+    private static final long LANE_MASK = (1L << LANES) - 1;
+    // sqrt(2 / pi)
+    private static final float C = (float) Math.sqrt(2.0 / Math.PI);
+    private static final float K = 0.044715f;
+
+    VectorKernels() {
+    }
+
+    @Override
+    public String getName() {
+        return "vector" + SPECIES.vectorBitSize();
+    }
+
+    @Override
+    public void relu(float[] x, float[] y, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            FloatVector.fromArray(SPECIES, x, i).max(0.0f).intoArray(y, i);
+        }
+        for (; i < length; ++i) {
+            y[i] = RELU.reluF(x[i]);
+        }
+    }
+
+    @Override
+    public void relu(float[] x, float[] y, long[] inactive, int length) {
+        int i = 0;
+        // LANES is a power of 2 <= 16, so the bits of a vector never straddle
+        // two words of the mask
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            FloatVector v = FloatVector.fromArray(SPECIES, x, i);
+            v.max(0.0f).intoArray(y, i);
+            long bits = (long) maskBits(v.compare(VectorOperators.LE, 0.0f)) << (i & 63);
+            if ((i & 63) == 0) {
+                inactive[i >>> 6] = bits;
+            } else {
+                inactive[i >>> 6] |= bits;
+            }
+        }
+        for (; i < length; ++i) {
+            float v = x[i];
+            if ((i & 63) == 0) {
+                inactive[i >>> 6] = 0L;
+            }
+            if (RELU.dreluF_dx(v) == 0.0f) {
+                inactive[i >>> 6] |= 1L << i;
+            }
+            y[i] = RELU.reluF(v);
+        }
+    }
+
+    @Override
+    public void relu(float[] x, float[] bias, float[] y, long[] inactive, int off, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            int p = off + i;
+            FloatVector v = FloatVector.fromArray(SPECIES, x, p).add(FloatVector.fromArray(SPECIES, bias, i));
+            v.max(0.0f).intoArray(y, p);
+            // off is arbitrary, so the bits may straddle two words of the mask
+            putBits(inactive, p, maskBits(v.compare(VectorOperators.LE, 0.0f)));
+        }
+        for (; i < length; ++i) {
+            int p = off + i;
+            float v = x[p] + bias[i];
+            if (RELU.dreluF_dx(v) == 0.0f) {
+                inactive[p >>> 6] |= 1L << p;
+            } else {
+                inactive[p >>> 6] &= ~(1L << p);
+            }
+            y[p] = RELU.reluF(v);
+        }
+    }
+
+    @Override
+    public void reluBackward(float[] x, float[] grads, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            FloatVector v = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector g = FloatVector.fromArray(SPECIES, grads, i);
+            g.blend(0.0f, v.compare(VectorOperators.LE, 0.0f)).intoArray(grads, i);
+        }
+        for (; i < length; ++i) {
+            grads[i] *= RELU.dreluF_dx(x[i]);
+        }
+    }
+
+    @Override
+    public void gelu(float[] x, float[] y, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            FloatVector v = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector t = tanhArg(v).lanewise(VectorOperators.TANH);
+            // 0.5 * x * (1 + t)
+            v.mul(0.5f).mul(t.add(1.0f)).intoArray(y, i);
+        }
+        for (; i < length; ++i) {
+            float v = x[i];
+            y[i] = ScalarKernels.gelu(v, ScalarKernels.geluTanh(v));
+        }
+    }
+
+    @Override
+    public void gelu(float[] x, float[] y, float[] derivative, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            FloatVector v = FloatVector.fromArray(SPECIES, x, i);
+            // the tanh term is shared by the function and its derivative
+            FloatVector t = tanhArg(v).lanewise(VectorOperators.TANH);
+            v.mul(0.5f).mul(t.add(1.0f)).intoArray(y, i);
+            geluDerivative(v, t).intoArray(derivative, i);
+        }
+        for (; i < length; ++i) {
+            float v = x[i];
+            double t = ScalarKernels.geluTanh(v);
+            y[i] = ScalarKernels.gelu(v, t);
+            derivative[i] = ScalarKernels.geluDerivative(v, t);
+        }
+    }
+
+    @Override
+    public void gelu(float[] x, float[] bias, float[] y, float[] derivative, int off, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            int p = off + i;
+            FloatVector v = FloatVector.fromArray(SPECIES, x, p).add(FloatVector.fromArray(SPECIES, bias, i));
+            FloatVector t = tanhArg(v).lanewise(VectorOperators.TANH);
+            v.mul(0.5f).mul(t.add(1.0f)).intoArray(y, p);
+            geluDerivative(v, t).intoArray(derivative, p);
+        }
+        for (; i < length; ++i) {
+            int p = off + i;
+            float v = x[p] + bias[i];
+            double t = ScalarKernels.geluTanh(v);
+            y[p] = ScalarKernels.gelu(v, t);
+            derivative[p] = ScalarKernels.geluDerivative(v, t);
+        }
+    }
+
+    @Override
+    public void geluBackward(float[] x, float[] grads, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            FloatVector v = FloatVector.fromArray(SPECIES, x, i);
+            FloatVector t = tanhArg(v).lanewise(VectorOperators.TANH);
+            FloatVector.fromArray(SPECIES, grads, i).mul(geluDerivative(v, t)).intoArray(grads, i);
+        }
+        for (; i < length; ++i) {
+            float v = x[i];
+            grads[i] *= ScalarKernels.geluDerivative(v, ScalarKernels.geluTanh(v));
+        }
+    }
+
+    @Override
+    public void softmax(float[] x, float[] y, int off, int length) {
+        int end = off + length;
+        int bound = off + SPECIES.loopBound(length);
+        // max for numerical stability
+        float max = Float.NEGATIVE_INFINITY;
+        int i = off;
+        if (bound > off) {
+            FloatVector vmax = FloatVector.broadcast(SPECIES, Float.NEGATIVE_INFINITY);
+            for (; i < bound; i += LANES) {
+                vmax = vmax.max(FloatVector.fromArray(SPECIES, x, i));
+            }
+            max = vmax.reduceLanes(VectorOperators.MAX);
+        }
+        for (; i < end; ++i) {
+            max = Math.max(max, x[i]);
+        }
+        float sum = 0.0f;
+        i = off;
+        if (bound > off) {
+            FloatVector vsum = FloatVector.zero(SPECIES);
+            for (; i < bound; i += LANES) {
+                FloatVector e = FloatVector.fromArray(SPECIES, x, i).sub(max).lanewise(VectorOperators.EXP);
+                e.intoArray(y, i);
+                vsum = vsum.add(e);
+            }
+            sum = vsum.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < end; ++i) {
+            float e = (float) Math.exp(x[i] - max);
+            y[i] = e;
+            sum += e;
+        }
+        i = off;
+        for (; i < bound; i += LANES) {
+            FloatVector.fromArray(SPECIES, y, i).div(sum).intoArray(y, i);
+        }
+        for (; i < end; ++i) {
+            y[i] /= sum;
+        }
+    }
+
+    @Override
+    public void softmaxBackward(float[] s, float[] grads, int off, int length) {
+        int end = off + length;
+        int bound = off + SPECIES.loopBound(length);
+        float dot = 0.0f;
+        int i = off;
+        if (bound > off) {
+            FloatVector vdot = FloatVector.zero(SPECIES);
+            for (; i < bound; i += LANES) {
+                vdot = FloatVector.fromArray(SPECIES, s, i).fma(FloatVector.fromArray(SPECIES, grads, i), vdot);
+            }
+            dot = vdot.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < end; ++i) {
+            dot += s[i] * grads[i];
+        }
+        i = off;
+        for (; i < bound; i += LANES) {
+            FloatVector g = FloatVector.fromArray(SPECIES, grads, i);
+            FloatVector.fromArray(SPECIES, s, i).mul(g.sub(dot)).intoArray(grads, i);
+        }
+        for (; i < end; ++i) {
+            grads[i] = s[i] * (grads[i] - dot);
+        }
+    }
+
+    @Override
+    public float crossEntropy(float[] expected, float[] pred, int off, int length) {
+        int end = off + length;
+        int bound = off + SPECIES.loopBound(length);
+        float productSum = 0.0f;
+        int i = off;
+        if (bound > off) {
+            FloatVector vsum = FloatVector.zero(SPECIES);
+            for (; i < bound; i += LANES) {
+                FloatVector e = FloatVector.fromArray(SPECIES, expected, i);
+                VectorMask<Float> nonZero = e.compare(VectorOperators.NE, 0.0f);
+                FloatVector logp = clamp(FloatVector.fromArray(SPECIES, pred, i)).lanewise(VectorOperators.LOG);
+                vsum = vsum.add(e.mul(logp), nonZero);
+            }
+            productSum = vsum.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < end; ++i) {
+            float e = expected[i];
+            if (e != 0.0f) {
+                productSum += e * ScalarKernels.log(pred[i]);
+            }
+        }
+        return -productSum;
+    }
+
+    @Override
+    public void crossEntropyGradient(float[] expected, float[] pred, float[] grads, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            FloatVector e = FloatVector.fromArray(SPECIES, expected, i);
+            FloatVector g = e.neg().div(clamp(FloatVector.fromArray(SPECIES, pred, i)));
+            g.blend(0.0f, e.compare(VectorOperators.EQ, 0.0f)).intoArray(grads, i);
+        }
+        for (; i < length; ++i) {
+            float e = expected[i];
+            grads[i] = (e != 0.0f) ? -e / ScalarKernels.clamp(pred[i]) : 0.0f;
+        }
+    }
+
+    @Override
+    public void subtract(float[] x, float[] y, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            FloatVector.fromArray(SPECIES, x, i).sub(FloatVector.fromArray(SPECIES, y, i)).intoArray(x, i);
+        }
+        for (; i < length; ++i) {
+            x[i] -= y[i];
+        }
+    }
+
+    @Override
+    public void multiply(float[] x, float[] y, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            FloatVector.fromArray(SPECIES, x, i).mul(FloatVector.fromArray(SPECIES, y, i)).intoArray(x, i);
+        }
+        for (; i < length; ++i) {
+            x[i] *= y[i];
+        }
+    }
+
+    @Override
+    public void dropout(float[] x, long[] mask, float scale, int from, int to) {
+        int i = from;
+        // LANES is a power of 2 <= 16 and from is a multiple of 64, so the bits
+        // of a vector never straddle two words of the mask and fit into an int
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+            VectorMask<Integer> dropped = IntVector.broadcast(INT_SPECIES, (int) (mask[i >>> 6] >>> (i & 63)))
+                    .and(LANE_BITS).compare(VectorOperators.NE, 0);
+            FloatVector.fromArray(SPECIES, x, i).mul(scale).reinterpretAsInts().blend(0, dropped)
+                    .reinterpretAsFloats().intoArray(x, i);
+        }
+        for (; i < to; ++i) {
+            if ((mask[i >>> 6] & (1L << i)) != 0L) {
+                x[i] = 0.0f;
+            } else {
+                x[i] *= scale;
+            }
+        }
+    }
+
+    // the bits of the set lanes of m, lane n at bit n
+    private static int maskBits(VectorMask<Float> m) {
+        return IntVector.zero(INT_SPECIES).blend(LANE_BITS, m.cast(INT_SPECIES)).reduceLanes(VectorOperators.OR);
+    }
+
+    // replaces the LANES bits of mask starting at bit position p with bits
+    private static void putBits(long[] mask, int p, int bits) {
+        int word = p >>> 6;
+        int shift = p & 63;
+        long b = bits & LANE_MASK;
+        mask[word] = (mask[word] & ~(LANE_MASK << shift)) | (b << shift);
+        if (shift + LANES > 64) {
+            int rest = 64 - shift;
+            mask[word + 1] = (mask[word + 1] & ~(LANE_MASK >>> rest)) | (b >>> rest);
+        }
+    }
+
+    // 0.5 * (1 + t) + 0.5 * x * (1 - t^2) * C * (1 + 3K * x^2)
+    private static FloatVector geluDerivative(FloatVector x, FloatVector t) {
+        FloatVector inner = x.mul(x).fma(3.0f * K, 1.0f).mul(C);
+        FloatVector sech2 = t.mul(t).neg().add(1.0f);
+        return x.mul(0.5f).mul(sech2).fma(inner, t.add(1.0f).mul(0.5f));
+    }
+
+    // C * (x + K * x^3)
+    private static FloatVector tanhArg(FloatVector x) {
+        return x.mul(x).fma(K, 1.0f).mul(x).mul(C);
+    }
+
+    // x <= 0 gets replaced by Float.MIN_NORMAL
+    private static FloatVector clamp(FloatVector x) {
+        return x.blend(Float.MIN_NORMAL, x.compare(VectorOperators.LE, 0.0f));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.loader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IdxFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsUnsignedBytes() throws IOException {
+        Path file = write("ok.idx", 0x08, 3, 2, 2);
+        IdxFile idx = IdxFile.open(file);
+        assertEquals(3, idx.size());
+        assertEquals(4, idx.itemSize());
+        float[] item = new float[4];
+        idx.read(2, item, 0, false);
+        assertEquals(8.0f, item[0]);
+        assertEquals(11.0f, item[3]);
+    }
+
+    @Test
+    void rejectsUnknownTypeCode() throws IOException {
+        assertRejected(write("type.idx", 0x0A, 3, 2, 2), "unknown IDX type code 0xa");
+    }
+
+    @Test
+    void rejectsZeroDimensions() throws IOException {
+        assertRejected(write("zero.idx", 0x08), "dimensions 0");
+    }
+
+    @Test
+    void rejectsTooManyDimensions() throws IOException {
+        assertRejected(write("many.idx", 0x08, 1, 1, 1, 1, 1), "dimensions 5");
+    }
+
+    @Test
+    void rejectsEmptyItems() throws IOException {
+        assertRejected(write("empty.idx", 0x08, 3, 0), "invalid IDX dimensions");
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        Path file = write("short.idx", 0x08, 3, 2, 2);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertRejected(file, "truncated");
+    }
+
+    private static void assertRejected(Path file, String message) {
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> IdxFile.open(file));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+        assertTrue(e.getMessage().contains(file.toString()), e.getMessage());
+    }
+
+    // writes a header with the given type and dimension sizes followed by the
+    // bytes 0, 1, 2, ... for all items
+    private Path write(String name, int type, int... dims) throws IOException {
+        long items = dims.length == 0 ? 0 : 1;
+        for (int dim : dims) {
+            items *= dim;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(4 + 4 * dims.length + (int) items);
+        buf.put((byte) 0).put((byte) 0).put((byte) type).put((byte) dims.length);
+        for (int dim : dims) {
+            buf.putInt(dim);
+        }
+        for (int i = 0; i < items; ++i) {
+            buf.put((byte) i);
+        }
+        Path file = dir.resolve(name);
+        Files.write(file, buf.array());
+        return file;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.loader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import net.jamu.matrix.Matrices;
+
+public class PrefetchingBatchIteratorTest {
+
+    @Test
+    void deliversAllBatches() {
+        try (PrefetchingBatchIterator it = new PrefetchingBatchIterator(dataset(), 4, 2, 3, 1L)) {
+            int batches = 0;
+            while (it.hasNext()) {
+                assertEquals(4, it.next().getInput().numColumns());
+                ++batches;
+            }
+            assertEquals(3 * it.batchesPerEpoch(), batches);
+        }
+    }
+
+    @Test
+    @Timeout(10) // used to block forever after the first rethrow
+    void failureIsRethrownOnEveryCall() {
+        RuntimeException failure = new RuntimeException("augmenter failed");
+        int[] count = new int[1];
+        try (PrefetchingBatchIterator it = new PrefetchingBatchIterator(dataset(), 4, 2, 3, 1L, batch -> {
+            if (++count[0] == 2) {
+                throw failure;
+            }
+        })) {
+            // the batch prepared before the failure still gets delivered
+            assertTrue(it.hasNext());
+            it.next();
+            for (int i = 0; i < 3; ++i) {
+                assertSame(failure, assertThrows(IllegalStateException.class, it::hasNext).getCause());
+                assertSame(failure, assertThrows(IllegalStateException.class, it::next).getCause());
+            }
+        }
+    }
+
+    private static Dataset dataset() {
+        return new MatrixDataset(Matrices.randomUniformF(3, 10), Matrices.createF(2, 10));
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.SplittableRandom;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Synthetic inputs and labels for the benchmarks, so that they can run
+ * without the MNIST files.
+ */
+final class BenchmarkData {
+
+    static MatrixF randomInput(int rows, int batchSize) {
+        return Matrices.randomUniformF(rows, batchSize, -1.0f, 1.0f);
+    }
+
+    static MatrixF randomOneHot(int labels, int batchSize, long seed) {
+        SplittableRandom rng = new SplittableRandom(seed);
+        MatrixF expected = Matrices.createF(labels, batchSize);
+        for (int col = 0; col < batchSize; ++col) {
+            expected.setUnsafe(rng.nextInt(labels), col, 1.0f);
+        }
+        return expected;
+    }
+
+    private BenchmarkData() {
+        throw new AssertionError();
+    }
+}
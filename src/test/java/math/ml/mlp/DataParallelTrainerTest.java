@@ -0,0 +1,152 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+public class DataParallelTrainerTest {
+
+    private static final int INPUT_SIZE = 12;
+    private static final int NUM_LABELS = 4;
+    private static final float LEARNING_RATE = 0.05f;
+    private static final float TOLERANCE = 1.0e-6f;
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void createPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void sameUpdateAsSequentialTraining() {
+        for (int replicas : new int[] { 1, 2, 4 }) {
+            assertSameUpdate(replicas, 16, false);
+        }
+    }
+
+    @Test
+    void sameUpdateWhenBatchSizeIsNotDivisibleByReplicas() {
+        for (int replicas : new int[] { 3, 4, 5 }) {
+            assertSameUpdate(replicas, 17, false);
+        }
+    }
+
+    @Test
+    void sameUpdateWithClassIndexLabels() {
+        assertSameUpdate(3, 17, true);
+    }
+
+    @Test
+    void labelCountMustMatchBatchSize() {
+        DataParallelTrainer trainer = new DataParallelTrainer(createNetwork(), 2, pool);
+        MatrixF input = Matrices.createF(INPUT_SIZE, 5);
+        assertThrows(IllegalArgumentException.class, () -> trainer.train(input, new int[4], LEARNING_RATE));
+    }
+
+    @Test
+    void moreReplicasThanColumns() {
+        assertSameUpdate(8, 5, false);
+    }
+
+    private static void assertSameUpdate(int replicas, int batchSize, boolean sparse) {
+        TestNetwork sequential = createNetwork();
+        TestNetwork parallel = createNetwork();
+        DataParallelTrainer trainer = new DataParallelTrainer(parallel, replicas, pool);
+
+        Random rnd = new Random(7L + batchSize);
+        MatrixF input = Matrices.createF(INPUT_SIZE, batchSize);
+        fill(input, rnd);
+        int[] labels = new int[batchSize];
+        MatrixF expected = Matrices.createF(NUM_LABELS, batchSize);
+        for (int col = 0; col < batchSize; ++col) {
+            labels[col] = rnd.nextInt(NUM_LABELS);
+            expected.set(labels[col], col, 1.0f);
+        }
+
+        // two steps, so that the second one starts from the updated weights
+        for (int step = 0; step < 2; ++step) {
+            if (sparse) {
+                assertNotNull(sequential.train(input, labels, LEARNING_RATE));
+                assertNotNull(trainer.train(input, labels, LEARNING_RATE));
+            } else {
+                assertNotNull(sequential.train(input, expected, LEARNING_RATE));
+                assertNotNull(trainer.train(input, expected, LEARNING_RATE));
+            }
+        }
+
+        List<Parameter> expectedParams = sequential.getParameters();
+        List<Parameter> actualParams = parallel.getParameters();
+        assertEquals(expectedParams.size(), actualParams.size());
+        for (int p = 0; p < expectedParams.size(); ++p) {
+            float[] exp = expectedParams.get(p).getValue().getArrayUnsafe();
+            float[] act = actualParams.get(p).getValue().getArrayUnsafe();
+            String name = expectedParams.get(p).getName() + ", replicas: " + replicas;
+            assertEquals(exp.length, act.length, name);
+            for (int i = 0; i < exp.length; ++i) {
+                assertEquals(exp[i], act[i], TOLERANCE, name);
+            }
+        }
+    }
+
+    private static TestNetwork createNetwork() {
+        TestNetwork net = new TestNetwork();
+        net.add(new Hidden(INPUT_SIZE, 8, "1"));
+        net.add(new Gelu());
+        net.add(new Hidden(8, 6, "2"));
+        net.add(new Relu());
+        net.add(new Hidden(6, NUM_LABELS, "3"));
+        net.add(new SoftmaxCrossEntropyLoss());
+        // same seeded weights and biases in both networks
+        Random rnd = new Random(42L);
+        for (Parameter param : net.getParameters()) {
+            fill(param.getValue(), rnd);
+        }
+        return net;
+    }
+
+    private static void fill(MatrixF m, Random rnd) {
+        float[] a = m.getArrayUnsafe();
+        for (int i = 0; i < a.length; ++i) {
+            a[i] = (float) rnd.nextGaussian() * 0.5f;
+        }
+    }
+
+    private static final class TestNetwork extends AbstractNetwork {
+        @Override
+        public MatrixF getExpectedBatchResults(int batchNumber) {
+            return null;
+        }
+    }
+}
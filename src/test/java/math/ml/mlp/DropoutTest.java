@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+public class DropoutTest {
+
+    private static final float RATE = 0.25f;
+    private static final float SCALE = 1.0f / (1.0f - RATE);
+    private static final float TOLERANCE = 1.0e-6f;
+
+    @Test
+    void sameSeedGivesSameMask() {
+        Dropout a = train(new Dropout(RATE, 42L));
+        Dropout b = train(new Dropout(RATE, 42L));
+        Dropout c = train(new Dropout(RATE, 43L));
+        for (int pass = 0; pass < 3; ++pass) {
+            float[] maskA = a.forward(ones(37, 29)).getArrayUnsafe();
+            float[] maskB = b.forward(ones(37, 29)).getArrayUnsafe();
+            float[] maskC = c.forward(ones(37, 29)).getArrayUnsafe();
+            assertArrayEquals(maskA, maskB);
+            assertFalse(Arrays.equals(maskA, maskC));
+        }
+    }
+
+    @Test
+    void backwardZeroesExactlyTheDroppedElements() {
+        // 37 x 29 isn't a multiple of 64, so the last mask word is partial
+        int rows = 37;
+        int cols = 29;
+        Dropout dropout = train(new Dropout(RATE, 7L));
+        float[] out = dropout.forward(ones(rows, cols)).getArrayUnsafe();
+        MatrixF grads = random(rows, cols, 11L);
+        float[] g = grads.getArrayUnsafe().clone();
+        float[] inputGrads = dropout.backward(grads).getArrayUnsafe();
+
+        int dropped = 0;
+        int droppedInFirstRow = 0;
+        int droppedInFirstColumn = 0;
+        for (int col = 0; col < cols; ++col) {
+            for (int row = 0; row < rows; ++row) {
+                int i = col * rows + row;
+                if (out[i] == 0.0f) {
+                    assertEquals(0.0f, inputGrads[i], "element (" + row + ", " + col + ")");
+                    ++dropped;
+                    droppedInFirstRow += (row == 0) ? 1 : 0;
+                    droppedInFirstColumn += (col == 0) ? 1 : 0;
+                } else {
+                    assertEquals(SCALE, out[i], TOLERANCE, "element (" + row + ", " + col + ")");
+                    assertEquals(g[i] * SCALE, inputGrads[i], TOLERANCE, "element (" + row + ", " + col + ")");
+                }
+            }
+        }
+        // row 0 and column 0 are masked like all the others
+        assertTrue(droppedInFirstRow > 0 && droppedInFirstRow < cols);
+        assertTrue(droppedInFirstColumn > 0 && droppedInFirstColumn < rows);
+        assertEquals(RATE, (double) dropped / (rows * cols), 0.05);
+    }
+
+    @Test
+    void parallelChunksGiveSameResultAsSequential() {
+        // larger than a single parallel chunk
+        int rows = 300;
+        int cols = 250;
+        Dropout sequential = train(new Dropout(RATE, 5L, false));
+        Dropout parallel = train(new Dropout(RATE, 5L, true));
+        for (int pass = 0; pass < 2; ++pass) {
+            assertArrayEquals(sequential.forward(ones(rows, cols)).getArrayUnsafe(),
+                    parallel.forward(ones(rows, cols)).getArrayUnsafe());
+            assertArrayEquals(sequential.backward(random(rows, cols, pass)).getArrayUnsafe(),
+                    parallel.backward(random(rows, cols, pass)).getArrayUnsafe());
+        }
+    }
+
+    @Test
+    void replayNextForwardReproducesTheMask() {
+        Dropout dropout = train(new Dropout(RATE, 3L));
+        float[] first = dropout.forward(ones(37, 29)).getArrayUnsafe();
+        dropout.replayNextForward();
+        float[] replayed = dropout.forward(ones(37, 29)).getArrayUnsafe();
+        assertArrayEquals(first, replayed);
+        // only the next pass gets replayed
+        float[] next = dropout.forward(ones(37, 29)).getArrayUnsafe();
+        assertFalse(Arrays.equals(first, next));
+    }
+
+    @Test
+    void inferIsIdentity() {
+        Dropout dropout = new Dropout(RATE, 1L);
+        dropout.setMode(NetworkMode.INFER);
+        MatrixF input = random(8, 8, 1L);
+        assertSame(input, dropout.forward(input));
+    }
+
+    private static Dropout train(Dropout dropout) {
+        dropout.setMode(NetworkMode.TRAIN);
+        return dropout;
+    }
+
+    private static MatrixF ones(int rows, int cols) {
+        MatrixF m = Matrices.createF(rows, cols);
+        Arrays.fill(m.getArrayUnsafe(), 1.0f);
+        return m;
+    }
+
+    private static MatrixF random(int rows, int cols, long seed) {
+        MatrixF m = Matrices.createF(rows, cols);
+        float[] a = m.getArrayUnsafe();
+        Random rnd = new Random(seed);
+        for (int i = 0; i < a.length; ++i) {
+            a[i] = (float) rnd.nextGaussian();
+        }
+        return m;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Forward and backward pass of a single {@link Hidden} layer at the shapes of
+ * the MNIST networks, and of a {@code Hidden} layer followed by a {@link Relu}
+ * compared to the fused {@link HiddenRelu}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HiddenBenchmark {
+
+    // in x out
+    @Param({ "784x768", "768x384" })
+    public String shape;
+
+    @Param({ "1", "32", "200", "1024" })
+    public int batchSize;
+
+    private Hidden hidden;
+    private Relu relu;
+    private HiddenRelu hiddenRelu;
+    private MatrixF input;
+    private MatrixF outputGrads;
+
+    @Setup
+    public void setup() {
+        String[] dims = shape.split("x");
+        int in = Integer.parseInt(dims[0]);
+        int out = Integer.parseInt(dims[1]);
+        hidden = new Hidden(in, out, "bench");
+        hidden.setMode(NetworkMode.TRAIN);
+        relu = new Relu();
+        relu.setMode(NetworkMode.TRAIN);
+        hiddenRelu = new HiddenRelu(in, out, "bench");
+        hiddenRelu.setMode(NetworkMode.TRAIN);
+        input = BenchmarkData.randomInput(in, batchSize);
+        outputGrads = BenchmarkData.randomInput(out, batchSize);
+    }
+
+    @Benchmark
+    public MatrixF forward() {
+        return hidden.forward(input);
+    }
+
+    @Benchmark
+    public MatrixF backward() {
+        // backward() needs the input of the previous forward pass
+        hidden.input = input;
+        return hidden.backward(outputGrads);
+    }
+
+    @Benchmark
+    public MatrixF reluForwardBackward() {
+        relu.forward(hidden.forward(input));
+        return hidden.backward(relu.backward(outputGrads));
+    }
+
+    @Benchmark
+    public MatrixF fusedReluForwardBackward() {
+        hiddenRelu.forward(input);
+        return hiddenRelu.backward(outputGrads);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HiddenBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
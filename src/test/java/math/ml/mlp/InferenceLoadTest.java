@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Drives thousands of concurrent clients (virtual threads on Java 21+,
+ * platform threads otherwise) that each send single-sample requests to an
+ * {@link InferenceService}, with and without micro-batching, and reports the
+ * latency percentiles and the throughput.
+ */
+public class InferenceLoadTest extends AbstractNetwork {
+
+    private static final int INPUT_SIZE = 28 * 28; // 784
+    private static final int NUM_LABELS = 10;
+    private static final int CLIENTS = 2_000;
+    private static final int REQUESTS_PER_CLIENT = 20;
+
+    public InferenceLoadTest() {
+    }
+
+    @Override
+    public MatrixF getExpectedBatchResults(int batchNumber) {
+        return null;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        InferenceLoadTest net = new InferenceLoadTest();
+        net.add(new Hidden(INPUT_SIZE, 768, "layer1"));
+        net.add(new Relu()); // 768
+        net.add(new Hidden(768, 384, "layer2"));
+        net.add(new Relu()); // 384
+        net.add(new Hidden(384, NUM_LABELS, "layer3"));
+        net.add(new SoftmaxCrossEntropyLoss());
+        FrozenNetwork frozen = net.freeze();
+
+        MatrixF[] inputs = new MatrixF[64];
+        for (int i = 0; i < inputs.length; ++i) {
+            inputs[i] = BenchmarkData.randomInput(INPUT_SIZE, 1);
+        }
+        boolean virtual = InferenceService.isVirtualThreadAvailable();
+        System.out.println(CLIENTS + " " + (virtual ? "virtual" : "platform") + " thread clients x "
+                + REQUESTS_PER_CLIENT + " requests");
+
+        try (InferenceService service = new InferenceService(frozen)) {
+            run("direct", service, inputs, virtual);
+        }
+        MicroBatchingExecutor batcher = new MicroBatchingExecutor(frozen, INPUT_SIZE, 128, 2, TimeUnit.MILLISECONDS);
+        try (InferenceService service = new InferenceService(frozen, batcher)) {
+            run("micro-batched", service, inputs, virtual);
+            System.out.println("  avg. batch size: " + Math.round(batcher.getAverageBatchSize()) + "   : max. queue depth: "
+                    + batcher.getMaxQueueDepth());
+        }
+    }
+
+    private static void run(String name, InferenceService service, MatrixF[] inputs, boolean virtual)
+            throws InterruptedException {
+        long[] latencies = new long[CLIENTS * REQUESTS_PER_CLIENT];
+        CountDownLatch done = new CountDownLatch(CLIENTS);
+        ExecutorService clients = virtual ? InferenceService.newVirtualThreadExecutor()
+                : Executors.newCachedThreadPool();
+        long start = System.nanoTime();
+        for (int c = 0; c < CLIENTS; ++c) {
+            int client = c;
+            clients.execute(() -> {
+                try {
+                    for (int i = 0; i < REQUESTS_PER_CLIENT; ++i) {
+                        MatrixF input = inputs[(client + i) % inputs.length];
+                        long t0 = System.nanoTime();
+                        service.inferAsync(input).join();
+                        latencies[client * REQUESTS_PER_CLIENT + i] = System.nanoTime() - t0;
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        clients.shutdown();
+        Arrays.sort(latencies);
+        System.out.println(name + "   : p50: " + millis(percentile(latencies, 0.50)) + " ms   : p99: "
+                + millis(percentile(latencies, 0.99)) + " ms   : max: " + millis(latencies[latencies.length - 1])
+                + " ms   : throughput: " + Math.round(latencies.length / (elapsed / 1e9)) + " samples/s");
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(p * sorted.length))];
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+}
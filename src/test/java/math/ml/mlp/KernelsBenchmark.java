@@ -0,0 +1,179 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The scalar against the SIMD {@link Kernels} on a 768 x 200 activation
+ * matrix and a 1000 x 200 softmax / cross-entropy matrix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class KernelsBenchmark {
+
+    private static final int ROWS = 768;
+    private static final int CLASSES = 1000;
+    private static final int BATCH_SIZE = 200;
+
+    @Param({ "scalar", "vector" })
+    public String kernels;
+
+    private Kernels k;
+    private float[] x;
+    private float[] y;
+    private float[] bias;
+    private float[] grads;
+    private long[] mask;
+    private float[] derivative;
+    private float[] logits;
+    private float[] probs;
+    private float[] expected;
+
+    @Setup
+    public void setup() {
+        k = "vector".equals(kernels) ? Kernels.vector() : Kernels.scalar();
+        x = BenchmarkData.randomInput(ROWS, BATCH_SIZE).getArrayUnsafe();
+        y = new float[x.length];
+        bias = BenchmarkData.randomInput(ROWS, 1).getArrayUnsafe();
+        grads = BenchmarkData.randomInput(ROWS, BATCH_SIZE).getArrayUnsafe();
+        mask = new long[(x.length + 63) >>> 6];
+        derivative = new float[x.length];
+        k.gelu(x, new float[x.length], derivative, x.length);
+        SplittableRandom rng = new SplittableRandom(42L);
+        for (int i = 0; i < mask.length; ++i) {
+            mask[i] = rng.nextLong();
+        }
+        logits = BenchmarkData.randomInput(CLASSES, BATCH_SIZE).getArrayUnsafe();
+        probs = new float[logits.length];
+        expected = BenchmarkData.randomOneHot(CLASSES, BATCH_SIZE, 42L).getArrayUnsafe();
+        for (int off = 0; off < logits.length; off += CLASSES) {
+            k.softmax(logits, probs, off, CLASSES);
+        }
+    }
+
+    @Benchmark
+    public float[] relu() {
+        k.relu(x, y, x.length);
+        return y;
+    }
+
+    @Benchmark
+    public float[] reluBackward() {
+        k.reluBackward(x, grads, x.length);
+        return grads;
+    }
+
+    @Benchmark
+    public long[] reluWithMask() {
+        k.relu(x, y, mask, x.length);
+        return mask;
+    }
+
+    @Benchmark
+    public long[] biasReluWithMask() {
+        // the fused HiddenRelu forward pass after the matrix multiplication
+        for (int off = 0; off < x.length; off += ROWS) {
+            k.relu(x, bias, y, mask, off, ROWS);
+        }
+        return mask;
+    }
+
+    @Benchmark
+    public float[] gelu() {
+        k.gelu(x, y, x.length);
+        return y;
+    }
+
+    @Benchmark
+    public float[] geluBackward() {
+        System.arraycopy(x, 0, y, 0, x.length);
+        k.geluBackward(x, y, y.length);
+        return y;
+    }
+
+    @Benchmark
+    public float[] geluWithDerivative() {
+        k.gelu(x, y, derivative, x.length);
+        return derivative;
+    }
+
+    @Benchmark
+    public float[] biasGeluWithDerivative() {
+        // the fused HiddenGelu forward pass after the matrix multiplication
+        for (int off = 0; off < x.length; off += ROWS) {
+            k.gelu(x, bias, y, derivative, off, ROWS);
+        }
+        return derivative;
+    }
+
+    @Benchmark
+    public float[] multiply() {
+        // compare with geluBackward
+        System.arraycopy(x, 0, y, 0, x.length);
+        k.multiply(y, derivative, y.length);
+        return y;
+    }
+
+    @Benchmark
+    public float[] softmax() {
+        for (int off = 0; off < logits.length; off += CLASSES) {
+            k.softmax(logits, y, off, CLASSES);
+        }
+        return y;
+    }
+
+    @Benchmark
+    public float crossEntropy() {
+        float sum = 0.0f;
+        for (int off = 0; off < probs.length; off += CLASSES) {
+            sum += k.crossEntropy(expected, probs, off, CLASSES);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float[] dropout() {
+        k.dropout(y, mask, 1.25f, 0, x.length);
+        return y;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(KernelsBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the column-wise bias + activation kernels against adding the bias
+ * first and applying the element-wise kernel afterwards.
+ */
+public class KernelsTest {
+
+    private static final int[] ROWS = { 1, 5, 16, 37, 64, 100 };
+    private static final int COLS = 7;
+
+    @Test
+    void biasRelu() {
+        for (Kernels kernels : implementations()) {
+            for (int rows : ROWS) {
+                int n = rows * COLS;
+                float[] x = random(n, 1L);
+                float[] bias = random(rows, 2L);
+                float[] expected = new float[n];
+                long[] expectedMask = new long[(n + 63) >>> 6];
+                kernels.relu(addBias(x, bias), expected, expectedMask, n);
+
+                float[] y = x.clone();
+                // stale bits must get cleared, bits past n left alone
+                long[] mask = new Random(3L).longs(expectedMask.length).toArray();
+                long padding = mask[mask.length - 1];
+                for (int off = 0; off < n; off += rows) {
+                    kernels.relu(y, bias, y, mask, off, rows);
+                }
+                String name = kernels.getName() + ", rows: " + rows;
+                assertArrayEquals(expected, y, name);
+                for (int i = 0; i < n; ++i) {
+                    assertEquals(bit(expectedMask, i), bit(mask, i), name + ", element: " + i);
+                }
+                for (int i = n; i < mask.length * 64; ++i) {
+                    assertEquals(bit(new long[] { padding }, i & 63), bit(mask, i), name + ", padding: " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void biasGelu() {
+        for (Kernels kernels : implementations()) {
+            for (int rows : ROWS) {
+                int n = rows * COLS;
+                float[] x = random(n, 1L);
+                float[] bias = random(rows, 2L);
+                float[] expected = new float[n];
+                float[] expectedDerivative = new float[n];
+                kernels.gelu(addBias(x, bias), expected, expectedDerivative, n);
+
+                float[] y = x.clone();
+                float[] derivative = new float[n];
+                for (int off = 0; off < n; off += rows) {
+                    kernels.gelu(y, bias, y, derivative, off, rows);
+                }
+                // the vector and the scalar code may round differently
+                String name = kernels.getName() + ", rows: " + rows;
+                assertArrayEquals(expected, y, 1.0e-6f, name);
+                assertArrayEquals(expectedDerivative, derivative, 1.0e-6f, name);
+            }
+        }
+    }
+
+    private static List<Kernels> implementations() {
+        ArrayList<Kernels> kernels = new ArrayList<>();
+        kernels.add(Kernels.scalar());
+        if (Kernels.isVectorAvailable()) {
+            kernels.add(Kernels.vector());
+        }
+        return kernels;
+    }
+
+    private static float[] addBias(float[] x, float[] bias) {
+        float[] z = x.clone();
+        for (int i = 0; i < z.length; ++i) {
+            z[i] += bias[i % bias.length];
+        }
+        return z;
+    }
+
+    private static boolean bit(long[] mask, int i) {
+        return (mask[i >>> 6] & (1L << i)) != 0L;
+    }
+
+    private static float[] random(int n, long seed) {
+        Random rnd = new Random(seed);
+        float[] a = new float[n];
+        for (int i = 0; i < n; ++i) {
+            a[i] = (float) rnd.nextGaussian() * 2.0f;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.jamu.matrix.MatrixF;
+
+/**
+ * The parameterless layers: {@link Relu}, {@link Gelu}, {@link Dropout},
+ * {@link Softmax} and {@link SoftmaxCrossEntropyLoss}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayerBenchmark {
+
+    // rows of the layer input
+    @Param({ "10", "768" })
+    public int rows;
+
+    @Param({ "32", "200" })
+    public int batchSize;
+
+    private Relu relu;
+    private Gelu gelu;
+    private Dropout dropout;
+    private Softmax softmax;
+    private SoftmaxCrossEntropyLoss loss;
+    private MatrixF input;
+    private MatrixF grads;
+    private MatrixF expected;
+
+    @Setup
+    public void setup() {
+        relu = new Relu();
+        gelu = new Gelu();
+        dropout = new Dropout(0.25f);
+        softmax = new Softmax();
+        loss = new SoftmaxCrossEntropyLoss();
+        for (Layer layer : new Layer[] { relu, gelu, dropout, softmax, loss }) {
+            layer.setMode(NetworkMode.TRAIN);
+        }
+        input = BenchmarkData.randomInput(rows, batchSize);
+        grads = BenchmarkData.randomInput(rows, batchSize);
+        expected = BenchmarkData.randomOneHot(rows, batchSize, 42L);
+        // the backward passes need the state saved by a forward pass
+        relu.forward(input);
+        gelu.forward(input);
+        softmax.forward(input);
+    }
+
+    @Benchmark
+    public MatrixF reluForward() {
+        return relu.forward(input);
+    }
+
+    @Benchmark
+    public MatrixF reluBackward() {
+        return relu.backward(grads);
+    }
+
+    @Benchmark
+    public MatrixF geluForward() {
+        return gelu.forward(input);
+    }
+
+    @Benchmark
+    public MatrixF geluBackward() {
+        return gelu.backward(grads);
+    }
+
+    @Benchmark
+    public MatrixF dropoutForwardBackward() {
+        // both work in place
+        dropout.forward(input);
+        return dropout.backward(grads);
+    }
+
+    @Benchmark
+    public MatrixF softmaxBackward() {
+        return softmax.backward(grads);
+    }
+
+    @Benchmark
+    public MatrixF softmaxCrossEntropyLossForward() {
+        loss.setExpectedValues(expected);
+        return loss.forward(input);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LayerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
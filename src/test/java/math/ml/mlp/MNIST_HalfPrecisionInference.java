@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import math.ml.loader.MNIST;
+import net.jamu.matrix.MatrixF;
+import net.jamu.matrix.Statistics;
+
+/**
+ * Compares the predictions and the accuracy on the MNIST test set of the
+ * bundled {@code data/w_layer*} / {@code data/b_layer*} weights frozen in
+ * float, bfloat16 and IEEE half precision.
+ */
+public class MNIST_HalfPrecisionInference extends AbstractNetwork {
+
+    private static final int NUM_LABELS = 10;
+
+    public MNIST_HalfPrecisionInference() {
+    }
+
+    @Override
+    public MatrixF getExpectedBatchResults(int batchNumber) {
+        return null;
+    }
+
+    public static void main(String[] args) {
+        MNIST_HalfPrecisionInference net = new MNIST_HalfPrecisionInference();
+        net.add(new Hidden(28 * 28, 768, "layer1", true, false));
+        net.add(new Relu()); // 768
+        net.add(new Hidden(768, 384, "layer2", true, false));
+        net.add(new Relu()); // 384
+        net.add(new Hidden(384, 256, "layer3", true, false));
+        net.add(new Relu()); // 256
+        net.add(new Hidden(256, NUM_LABELS, "layer4", true, false));
+        net.add(new Relu()); // 10
+        net.add(new SoftmaxCrossEntropyLoss());
+
+        MatrixF images = Statistics.zscoreColumnsInplace(MNIST.getTestSetImages());
+        MatrixF labels = MNIST.getTestSetLabels();
+
+        MatrixF reference = null;
+        for (Precision precision : Precision.values()) {
+            FrozenNetwork frozen = net.freeze(precision);
+            long start = System.nanoTime();
+            MatrixF predict = frozen.infer(images);
+            long millis = (System.nanoTime() - start) / 1_000_000L;
+            if (reference == null) {
+                reference = predict;
+            }
+            System.out.println(precision + "   : weights: " + weightBytes(frozen) / 1024 + " KiB   : accuracy: "
+                    + CategorialAccuracy.computeAccuracy(predict, labels) + "   : max. abs. deviation from "
+                    + Precision.FLOAT32 + ": " + predict.minus(reference).normMaxAbs() + "   : " + millis + " ms");
+        }
+    }
+
+    private static long weightBytes(FrozenNetwork net) {
+        long bytes = 0L;
+        for (InferenceLayer layer : net.getLayers()) {
+            if (layer instanceof FrozenHidden) {
+                MatrixF weights = ((FrozenHidden) layer).getWeights();
+                bytes += (long) Float.BYTES * weights.numRows() * weights.numColumns();
+            } else if (layer instanceof HalfPrecisionHidden) {
+                bytes += ((HalfPrecisionHidden) layer).getWeightBytes();
+            }
+        }
+        return bytes;
+    }
+}
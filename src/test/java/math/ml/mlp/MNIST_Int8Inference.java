@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.ArrayList;
+
+import math.ml.loader.MNIST;
+import net.jamu.matrix.MatrixF;
+import net.jamu.matrix.Statistics;
+
+/**
+ * Quantizes the bundled {@code data/w_layer*} / {@code data/b_layer*} weights
+ * to int8, calibrating on the first 1000 images of the MNIST test set, and
+ * reports the accuracy delta on the remaining 9000 images.
+ */
+public class MNIST_Int8Inference extends AbstractNetwork {
+
+    private static final int NUM_LABELS = 10;
+    private static final int CALIBRATION_SIZE = 1000;
+    private static final int BATCH_SIZE = 200;
+
+    public MNIST_Int8Inference() {
+    }
+
+    @Override
+    public MatrixF getExpectedBatchResults(int batchNumber) {
+        return null;
+    }
+
+    public static void main(String[] args) {
+        MNIST_Int8Inference net = new MNIST_Int8Inference();
+        net.add(new Hidden(28 * 28, 768, "layer1", true, false));
+        net.add(new Relu()); // 768
+        net.add(new Hidden(768, 384, "layer2", true, false));
+        net.add(new Relu()); // 384
+        net.add(new Hidden(384, 256, "layer3", true, false));
+        net.add(new Relu()); // 256
+        net.add(new Hidden(256, NUM_LABELS, "layer4", true, false));
+        net.add(new Relu()); // 10
+        net.add(new SoftmaxCrossEntropyLoss());
+
+        MatrixF images = Statistics.zscoreColumnsInplace(MNIST.getTestSetImages());
+        MatrixF labels = MNIST.getTestSetLabels();
+        int last = images.numColumns() - 1;
+
+        ArrayList<MatrixF> calibration = new ArrayList<>();
+        for (int col = 0; col < CALIBRATION_SIZE; col += BATCH_SIZE) {
+            calibration.add(images.selectConsecutiveColumns(col, col + BATCH_SIZE - 1));
+        }
+        MatrixF testImages = images.selectConsecutiveColumns(CALIBRATION_SIZE, last);
+        MatrixF testLabels = labels.selectConsecutiveColumns(CALIBRATION_SIZE, last);
+
+        FrozenNetwork reference = net.freeze();
+        FrozenNetwork quantized = net.quantize(calibration);
+
+        long start = System.nanoTime();
+        double accuracy = CategorialAccuracy.computeAccuracy(reference.infer(testImages), testLabels);
+        long floatMillis = (System.nanoTime() - start) / 1_000_000L;
+        start = System.nanoTime();
+        double int8Accuracy = CategorialAccuracy.computeAccuracy(quantized.infer(testImages), testLabels);
+        long int8Millis = (System.nanoTime() - start) / 1_000_000L;
+
+        System.out.println("float : accuracy: " + accuracy + "   : " + floatMillis + " ms");
+        System.out.println("int8  : accuracy: " + int8Accuracy + "   : " + int8Millis + " ms");
+        System.out.println("accuracy delta: "
+                + Quantization.accuracyDelta(reference, quantized, testImages, testLabels));
+    }
+}
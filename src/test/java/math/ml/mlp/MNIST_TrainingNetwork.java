@@ -106,6 +106,7 @@ public class MNIST_TrainingNetwork extends AbstractNetwork {
             if (i > 0 && (i % NUM_BATCHES_PER_EPOCH == 0)) {
                 double trainingAccuracy = Arithmetic.round(epochAccuraciesSum / NUM_BATCHES_PER_EPOCH, 6);
                 double validationAccuracy = net.validationAccuracy();
+                net.checkpoint();
                 System.out.println("epoch " + epoch + "   : avg. accuracy: " + trainingAccuracy + "   : avg. loss: "
                         + Arithmetic.round(epochLossesSum / NUM_BATCHES_PER_EPOCH, 6)
                         + "   : validation avg. accuracy: " + validationAccuracy);
@@ -125,6 +126,7 @@ public class MNIST_TrainingNetwork extends AbstractNetwork {
 
         System.out.println("\nDone with training. Checking last validation accuracy.");
         double accuracy = net.validationAccuracy();
+        net.checkpoint();
         System.out.println("validation : avg. accuracy in validation: " + accuracy);
     }
 
@@ -18,10 +18,12 @@ package math.ml.mlp;
 import java.util.concurrent.ThreadLocalRandom;
 
 import math.cern.Arithmetic;
+import math.ml.loader.Batch;
 import math.ml.loader.MNIST;
+import math.ml.loader.MatrixDataset;
+import math.ml.loader.PrefetchingBatchIterator;
 import net.jamu.matrix.Matrices;
 import net.jamu.matrix.MatrixF;
-import net.jamu.matrix.Statistics;
 
 /**
  * A simple MLP for MNIST.
@@ -41,35 +43,25 @@ public class MNIST_TrainingNetwork2 extends AbstractNetwork {
         epochAccuraciesSum += accuracy;
     }
 
-    private static int getStartColumn(int batchNumber) {
-        batchNumber = batchNumber % NUM_BATCHES_PER_EPOCH;
-        return batchNumber * BATCH_SIZE;
-    }
-
     @Override
     public MatrixF getExpectedBatchResults(int batchNumber) {
-        int col = getStartColumn(batchNumber);
-        return EXPECT.selectConsecutiveColumns(col, col + BATCH_SIZE - 1);
+        // the expected values get passed together with each batch
+        return null;
     }
 
     private static final int NUM_LABELS = 10;
     private static final int BATCH_SIZE = 200;
-    private static final float LOWER = 0.0f;
-    private static final float UPPER = 1.0f;
     // 784 x 180_000
-    private static final MatrixF IMAGES = Statistics.rescaleInplace(MNIST.getTrainingSetImages()
-            .appendMatrix(MNIST.getTrainingSetImagesLeft()).appendMatrix(MNIST.getTrainingSetImagesRight()), LOWER,
-            UPPER);
+    private static final MatrixF IMAGES = MNIST.getTrainingSetImages(true)
+            .appendMatrix(MNIST.getTrainingSetImagesLeft(true)).appendMatrix(MNIST.getTrainingSetImagesRight(true));
 
-    // 10 x 180_000
-    private static final MatrixF EXPECT = MNIST.getTrainingSetLabels().appendMatrix(MNIST.getTrainingSetLabels())
-            .appendMatrix(MNIST.getTrainingSetLabels());
+    // 180_000 class indices
+    private static final int[] LABELS = repeat(MNIST.getTrainingSetLabelIndices(), 3);
 
-    private static final MatrixF TEST_IMAGES = Statistics.rescaleInplace(MNIST.getTestSetImages(), LOWER, UPPER);
-    private static final MatrixF TEST_EXPECT = MNIST.getTestSetLabels();
+    private static final MatrixF TEST_IMAGES = MNIST.getTestSetImages(true);
+    private static final int[] TEST_LABELS = MNIST.getTestSetLabelIndices();
 
     private static final int INPUT_SIZE = IMAGES.numRows();
-    private static final int NUM_BATCHES_PER_EPOCH = IMAGES.numColumns() / BATCH_SIZE;
     private static final int NUM_EPOCHS = 200;
     private static int epoch = 0;
     private static double epochAccuraciesSum = 0.0;
@@ -82,7 +74,6 @@ public class MNIST_TrainingNetwork2 extends AbstractNetwork {
         SoftmaxCrossEntropyLoss loss = new SoftmaxCrossEntropyLoss();
         loss.registerAccuracyCallback(net::onAccuracyComputationCompleted);
         loss.registerLossCallback(net::onLossComputationCompleted);
-        loss.registerBatchExpectedValuesProvider(net::getExpectedBatchResults);
 
         net.add(new Hidden(INPUT_SIZE, 768, "layer1", false, true));
         net.add(new Dropout(dropoutRate / 3)); // / 5 / 3
@@ -98,53 +89,63 @@ public class MNIST_TrainingNetwork2 extends AbstractNetwork {
         net.add(new Relu()); // 10
         net.add(loss);
 
-        final float learningRate = 0.5f; // XXX
+        // start at 0.5 and halve the learning rate whenever the validation accuracy
+        // stalls for more than 2 epochs
+        net.setLearningRateSchedule(new ReduceOnPlateau(0.5f, 0.5f, 2, 0.01f));
 
-        // shuffle images and labels randomly
-        long seed = ThreadLocalRandom.current().nextLong();
-        Statistics.shuffleColumnsInplace(IMAGES, seed);
-        Statistics.shuffleColumnsInplace(EXPECT, seed);
+        // images and labels get shuffled randomly at the start of each epoch while
+        // the next batches are prepared in the background
+        PrefetchingBatchIterator batches = new PrefetchingBatchIterator(new MatrixDataset(IMAGES, LABELS, NUM_LABELS),
+                BATCH_SIZE, 3, NUM_EPOCHS, ThreadLocalRandom.current().nextLong(), true, null);
+        final int batchesPerEpoch = batches.batchesPerEpoch();
 
         double maxValidationAccuracy = 0.0;
 
         // train for up to NUM_EPOCHS epochs
-        for (int i = 0; i <= NUM_EPOCHS * NUM_BATCHES_PER_EPOCH; ++i) {
-            int startCol = getStartColumn(i);
-            MatrixF input = IMAGES.selectConsecutiveColumns(startCol, startCol + BATCH_SIZE - 1);
-            net.train(input, learningRate);
-            if (i > 0 && (i % NUM_BATCHES_PER_EPOCH == 0)) {
-                double trainingAccuracy = Arithmetic.round(epochAccuraciesSum / NUM_BATCHES_PER_EPOCH, 6);
-                double avgTrainingLoss = Arithmetic.round(epochLossesSum / NUM_BATCHES_PER_EPOCH, 6);
-                double validationAccuracy = net.validationAccuracy();
-                maxValidationAccuracy = Math.max(maxValidationAccuracy, validationAccuracy);
-                System.out.println("epoch " + epoch + "   : avg. accuracy: " + trainingAccuracy + "   : avg. loss: "
-                        + avgTrainingLoss + "   : validation avg. accuracy: " + validationAccuracy + "   : max acc.: "
-                        + maxValidationAccuracy);
-                epochAccuraciesSum = 0.0;
-                epochLossesSum = 0.0;
-                ++epoch;
-                if (validationAccuracy < trainingAccuracy) {
-                    System.out.println("potential overfitting. Stopping.");
-                    break;
-                }
-                if (validationAccuracy >= 0.99) {
-                    System.out.println("Found a net with accuracy " + validationAccuracy + ". Stopping.");
-                    break;
-                }
-                // reshuffle before the next epoch
-                seed = ThreadLocalRandom.current().nextLong();
-                Statistics.shuffleColumnsInplace(IMAGES, seed);
-                Statistics.shuffleColumnsInplace(EXPECT, seed);
+        while (epoch < NUM_EPOCHS) {
+            for (int i = 0; i < batchesPerEpoch; ++i) {
+                Batch batch = batches.next();
+                net.train(batch.getInput(), batch.getLabels());
+            }
+            double trainingAccuracy = Arithmetic.round(epochAccuraciesSum / batchesPerEpoch, 6);
+            double avgTrainingLoss = Arithmetic.round(epochLossesSum / batchesPerEpoch, 6);
+            double validationAccuracy = net.validationAccuracy();
+            net.onValidationAccuracyComputed(validationAccuracy);
+            net.checkpoint();
+            maxValidationAccuracy = Math.max(maxValidationAccuracy, validationAccuracy);
+            System.out.println("epoch " + epoch + "   : avg. accuracy: " + trainingAccuracy + "   : avg. loss: "
+                    + avgTrainingLoss + "   : validation avg. accuracy: " + validationAccuracy + "   : max acc.: "
+                    + maxValidationAccuracy + "   : waited for data: " + batches.getWaitCount() + " times");
+            epochAccuraciesSum = 0.0;
+            epochLossesSum = 0.0;
+            ++epoch;
+            if (validationAccuracy < trainingAccuracy) {
+                System.out.println("potential overfitting. Stopping.");
+                break;
+            }
+            if (validationAccuracy >= 0.99) {
+                System.out.println("Found a net with accuracy " + validationAccuracy + ". Stopping.");
+                break;
             }
         }
+        batches.close();
 
         System.out.println("\nDone with training. Checking last validation accuracy.");
         double accuracy = net.validationAccuracy();
+        net.checkpoint();
         System.out.println("validation : avg. accuracy in validation: " + accuracy);
     }
 
     private double validationAccuracy() {
         MatrixF predict = infer(TEST_IMAGES);
-        return CategorialAccuracy.computeAccuracy(predict, TEST_EXPECT);
+        return CategorialAccuracy.computeAccuracy(predict, TEST_LABELS);
+    }
+
+    private static int[] repeat(int[] labels, int times) {
+        int[] repeated = new int[labels.length * times];
+        for (int i = 0; i < times; ++i) {
+            System.arraycopy(labels, 0, repeated, i * labels.length, labels.length);
+        }
+        return repeated;
     }
 }
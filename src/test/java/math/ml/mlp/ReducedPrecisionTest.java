@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Checks that the reduced precision and the int8 quantized frozen networks stay
+ * close to the {@link Precision#FLOAT32} network returned by
+ * {@link AbstractNetwork#freeze()} on small synthetic data.
+ */
+public class ReducedPrecisionTest {
+
+    private static final int INPUT_SIZE = 32;
+    private static final int NUM_CLASSES = 10;
+    private static final int BATCH_SIZE = 200;
+
+    private static TestNetwork net;
+    private static MatrixF input;
+    private static MatrixF reference;
+
+    @BeforeAll
+    static void createNetwork() {
+        net = new TestNetwork();
+        net.add(new HiddenRelu(INPUT_SIZE, 24, "1"));
+        net.add(new Hidden(24, 16, "2"));
+        net.add(new Gelu());
+        net.add(new Hidden(16, NUM_CLASSES, "3"));
+        net.add(new SoftmaxCrossEntropyLoss());
+        Random rnd = new Random(7L);
+        for (Parameter param : net.getParameters()) {
+            float[] a = param.getValue().getArrayUnsafe();
+            for (int i = 0; i < a.length; ++i) {
+                a[i] = (float) rnd.nextGaussian() * 0.3f;
+            }
+        }
+        input = random(INPUT_SIZE, BATCH_SIZE, 42L);
+        reference = net.freeze().infer(input);
+    }
+
+    @Test
+    void bfloat16() {
+        assertClose(net.freeze(Precision.BFLOAT16), 1.0e-2f);
+    }
+
+    @Test
+    void float16() {
+        assertClose(net.freeze(Precision.FLOAT16), 1.0e-3f);
+    }
+
+    @Test
+    void int8() {
+        // calibrate on other samples from the same distribution
+        List<MatrixF> calibration = List.of(random(INPUT_SIZE, BATCH_SIZE, 1L), random(INPUT_SIZE, BATCH_SIZE, 2L));
+        assertClose(net.quantize(calibration), 1.0e-1f);
+    }
+
+    private static void assertClose(Network frozen, float tolerance) {
+        MatrixF output = frozen.infer(input);
+        assertEquals(NUM_CLASSES, output.numRows());
+        assertEquals(BATCH_SIZE, output.numColumns());
+        float[] expected = reference.getArrayUnsafe();
+        float[] actual = output.getArrayUnsafe();
+        float maxDiff = 0.0f;
+        for (int i = 0; i < expected.length; ++i) {
+            maxDiff = Math.max(maxDiff, Math.abs(expected[i] - actual[i]));
+        }
+        assertTrue(maxDiff <= tolerance, "max abs difference " + maxDiff);
+    }
+
+    private static MatrixF random(int rows, int cols, long seed) {
+        MatrixF m = Matrices.createF(rows, cols);
+        float[] a = m.getArrayUnsafe();
+        Random rnd = new Random(seed);
+        for (int i = 0; i < a.length; ++i) {
+            a[i] = (float) rnd.nextGaussian();
+        }
+        return m;
+    }
+
+    private static final class TestNetwork extends AbstractNetwork {
+        @Override
+        public MatrixF getExpectedBatchResults(int batchNumber) {
+            return null;
+        }
+    }
+}
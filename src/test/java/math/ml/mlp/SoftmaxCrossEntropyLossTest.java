@@ -0,0 +1,99 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+public class SoftmaxCrossEntropyLossTest {
+
+    private static final int NUM_CLASSES = 10;
+    private static final int BATCH_SIZE = 23;
+    private static final float TOLERANCE = 1.0e-5f;
+
+    @Test
+    void labelsGiveSameResultAsSoftmaxAndCrossEntropyLoss() {
+        Random rnd = new Random(42L);
+        MatrixF logits = Matrices.createF(NUM_CLASSES, BATCH_SIZE);
+        float[] x = logits.getArrayUnsafe();
+        for (int i = 0; i < x.length; ++i) {
+            x[i] = (float) rnd.nextGaussian() * 2.0f;
+        }
+        int[] labels = new int[BATCH_SIZE];
+        MatrixF expected = Matrices.createF(NUM_CLASSES, BATCH_SIZE);
+        for (int col = 0; col < BATCH_SIZE; ++col) {
+            labels[col] = rnd.nextInt(NUM_CLASSES);
+            expected.set(labels[col], col, 1.0f);
+        }
+
+        // unfused reference with one-hot labels
+        Softmax softmax = train(new Softmax());
+        CrossEntropyLoss crossEntropy = train(new CrossEntropyLoss());
+        float[] expectedLosses = new float[BATCH_SIZE];
+        double[] expectedAccuracy = new double[1];
+        crossEntropy.registerLossCallback(losses -> copy(losses, expectedLosses));
+        crossEntropy.registerAccuracyCallback(accuracy -> expectedAccuracy[0] = accuracy);
+        crossEntropy.setExpectedValues(expected);
+        MatrixF expectedGrads = softmax.backward(crossEntropy.forward(softmax.forward(logits)));
+
+        // fused with class indices
+        SoftmaxCrossEntropyLoss fused = train(new SoftmaxCrossEntropyLoss());
+        float[] actualLosses = new float[BATCH_SIZE];
+        double[] actualAccuracy = new double[1];
+        fused.registerLossCallback(losses -> copy(losses, actualLosses));
+        fused.registerAccuracyCallback(accuracy -> actualAccuracy[0] = accuracy);
+        fused.setExpectedLabels(labels);
+        fused.forward(logits);
+        MatrixF actualGrads = fused.backward(null);
+
+        assertArrayEquals(expectedLosses, actualLosses, TOLERANCE);
+        assertArrayEquals(expectedGrads.getArrayUnsafe(), actualGrads.getArrayUnsafe(), TOLERANCE);
+        assertEquals(expectedAccuracy[0], actualAccuracy[0]);
+    }
+
+    @Test
+    void invalidLabelsAreRejected() {
+        MatrixF logits = Matrices.createF(NUM_CLASSES, 3);
+        assertRejected(new int[] { 0, NUM_CLASSES, 1 }, logits, "label 10 in column 1 is not in [0, 10)");
+        assertRejected(new int[] { 0, 1, -1 }, logits, "label -1 in column 2 is not in [0, 10)");
+        assertRejected(new int[] { 0, 1 }, logits, "2 labels for 3 columns");
+    }
+
+    private static void assertRejected(int[] labels, MatrixF logits, String message) {
+        for (AbstractLoss loss : new AbstractLoss[] { new SoftmaxCrossEntropyLoss(), new CrossEntropyLoss() }) {
+            train(loss).setExpectedLabels(labels);
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> loss.forward(logits));
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static <T extends AbstractLayer> T train(T layer) {
+        layer.setMode(NetworkMode.TRAIN);
+        return layer;
+    }
+
+    private static void copy(MatrixF losses, float[] target) {
+        System.arraycopy(losses.getArrayUnsafe(), 0, target, 0, target.length);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import net.jamu.matrix.Matrices;
+import net.jamu.matrix.MatrixF;
+
+/**
+ * Checks that a training step doesn't allocate once the layers have sized
+ * their buffers for the batch, i.e., that the bytes allocated over N steps
+ * stay below a bound that doesn't depend on N.
+ * <p>
+ * Tagged "slow" because it needs a few thousand steps of JIT warm-up. The
+ * default build excludes it, {@code mvn test -DexcludedTestGroups=none} runs
+ * it.
+ */
+@Tag("slow")
+public class TrainingAllocationTest {
+
+    private static final int INPUT_SIZE = 64;
+    private static final int NUM_LABELS = 10;
+    private static final int BATCH_SIZE = 100;
+    private static final float LEARNING_RATE = 0.01f;
+    // the steps only become allocation-free once the JIT has compiled them
+    // (escape analysis, Vector API intrinsics), which takes a few thousand steps
+    private static final int WARMUP_ROUND = 500;
+    private static final int MAX_WARMUP_ROUNDS = 16;
+    // slack for the odd allocation outside of the training loop (e.g., JIT
+    // deoptimization), far less than a single step with fresh buffers
+    private static final long MAX_BYTES = 16 * 1024;
+
+    @Test
+    void hiddenActivationSoftmaxCrossEntropy() {
+        TestNetwork net = new TestNetwork();
+        net.add(new Hidden(INPUT_SIZE, 32, "1"));
+        net.add(new Relu());
+        net.add(new Hidden(32, 16, "2"));
+        net.add(new Gelu());
+        net.add(new Hidden(16, NUM_LABELS, "3"));
+        net.add(new Activation(x -> x, x -> 1.0f));
+        net.add(new Softmax());
+        net.add(new CrossEntropyLoss());
+        assertSteadyStateIsAllocationFree(net, false);
+    }
+
+    @Test
+    void fusedLayersAndDropout() {
+        TestNetwork net = new TestNetwork();
+        net.add(new HiddenRelu(INPUT_SIZE, 32, "1"));
+        net.add(new Dropout(0.2f, 1L));
+        net.add(new HiddenGelu(32, 16, "2"));
+        net.add(new Hidden(16, NUM_LABELS, "3"));
+        net.add(new SoftmaxCrossEntropyLoss());
+        assertSteadyStateIsAllocationFree(net, false);
+    }
+
+    @Test
+    void classIndexLabels() {
+        TestNetwork net = new TestNetwork();
+        net.add(new Hidden(INPUT_SIZE, 32, "1"));
+        net.add(new Relu());
+        net.add(new Hidden(32, NUM_LABELS, "2"));
+        net.add(new SoftmaxCrossEntropyLoss());
+        assertSteadyStateIsAllocationFree(net, true);
+    }
+
+    private static void assertSteadyStateIsAllocationFree(TestNetwork net, boolean sparse) {
+        Random rnd = new Random(42L);
+        MatrixF input = Matrices.createF(INPUT_SIZE, BATCH_SIZE);
+        float[] in = input.getArrayUnsafe();
+        for (int i = 0; i < in.length; ++i) {
+            in[i] = (float) rnd.nextGaussian();
+        }
+        int[] labels = new int[BATCH_SIZE];
+        MatrixF expected = Matrices.createF(NUM_LABELS, BATCH_SIZE);
+        for (int col = 0; col < BATCH_SIZE; ++col) {
+            labels[col] = rnd.nextInt(NUM_LABELS);
+            expected.set(labels[col], col, 1.0f);
+        }
+        Loss loss = (Loss) net.layers.get(net.layers.size() - 1);
+        float[] lastLoss = new float[1];
+        loss.registerLossCallback(losses -> lastLoss[0] = losses.get(0, 0));
+
+        for (int round = 0; round < MAX_WARMUP_ROUNDS; ++round) {
+            if (allocatedBytes(net, WARMUP_ROUND, input, expected, labels, sparse) <= MAX_BYTES) {
+                break;
+            }
+        }
+        for (int steps : new int[] { 10, 100, 1000 }) {
+            long allocated = allocatedBytes(net, steps, input, expected, labels, sparse);
+            assertTrue(allocated <= MAX_BYTES, steps + " steps allocated " + allocated + " bytes");
+        }
+        assertTrue(Float.isFinite(lastLoss[0]));
+    }
+
+    private static long allocatedBytes(TestNetwork net, int steps, MatrixF input, MatrixF expected, int[] labels,
+            boolean sparse) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < steps; ++i) {
+            train(net, input, expected, labels, sparse);
+        }
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+
+    private static void train(TestNetwork net, MatrixF input, MatrixF expected, int[] labels, boolean sparse) {
+        if (sparse) {
+            assertNotNull(net.train(input, labels, LEARNING_RATE));
+        } else {
+            assertNotNull(net.train(input, expected, LEARNING_RATE));
+        }
+    }
+
+    private static final class TestNetwork extends AbstractNetwork {
+        @Override
+        public MatrixF getExpectedBatchResults(int batchNumber) {
+            return null;
+        }
+    }
+}
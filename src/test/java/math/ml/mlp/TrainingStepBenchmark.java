@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Stefan Zobel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package math.ml.mlp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.jamu.matrix.MatrixF;
+
+/**
+ * A full {@link AbstractNetwork#train(MatrixF, MatrixF, float)} step (forward
+ * pass, back-propagation and SGD update) of the MNIST_TrainingNetwork2
+ * topology on synthetic data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainingStepBenchmark {
+
+    private static final int INPUT_SIZE = 28 * 28; // 784
+    private static final int NUM_LABELS = 10;
+
+    @Param({ "32", "200" })
+    public int batchSize;
+
+    private BenchmarkNetwork net;
+    private MatrixF input;
+    private MatrixF expected;
+
+    static final class BenchmarkNetwork extends AbstractNetwork {
+        @Override
+        public MatrixF getExpectedBatchResults(int batchNumber) {
+            return null;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        net = new BenchmarkNetwork();
+        net.add(new Hidden(INPUT_SIZE, 768, "layer1"));
+        net.add(new Dropout(0.1f));
+        net.add(new Relu());
+        net.add(new Hidden(768, 384, "layer2"));
+        net.add(new Dropout(0.3f));
+        net.add(new Relu());
+        net.add(new Hidden(384, 256, "layer3"));
+        net.add(new Dropout(0.3f));
+        net.add(new Relu());
+        net.add(new Hidden(256, NUM_LABELS, "layer4"));
+        net.add(new SoftmaxCrossEntropyLoss());
+        input = BenchmarkData.randomInput(INPUT_SIZE, batchSize);
+        expected = BenchmarkData.randomOneHot(NUM_LABELS, batchSize, 42L);
+    }
+
+    @Benchmark
+    public Network train() {
+        return net.train(input, expected, 0.01f);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TrainingStepBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}